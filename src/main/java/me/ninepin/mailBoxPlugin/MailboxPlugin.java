@@ -30,24 +30,59 @@ public class MailboxPlugin extends JavaPlugin {
             new MailboxExpansion(this).register();
             getLogger().info("成功掛勾到 PlaceholderAPI!");
         }
-        // 设置自动保存定时任务 (每5分钟保存一次)
+        // 设置自动保存定时任务 (在 auto-save-interval 内分片依次保存有修改的信箱)
+        long saveSliceTicks = mailboxManager.getAutoSave().getSliceTicks();
         new BukkitRunnable() {
             @Override
             public void run() {
-                mailboxManager.saveAllMailboxes();
-                getLogger().info("自动保存所有玩家信箱数据完成");
+                mailboxManager.scheduleDirtySave();
             }
-        }.runTaskTimerAsynchronously(this, 6000L, 6000L); // 5分钟 = 6000 ticks
+        }.runTaskTimerAsynchronously(this, saveSliceTicks, saveSliceTicks);
+
+        // 设置缓存清理定时任务 (每分钟淘汰闲置的离线玩家信箱)
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                mailboxManager.cleanUpCache();
+            }
+        }.runTaskTimer(this, 1200L, 1200L); // 1分钟 = 1200 ticks
+
+        // 设置共享物品清理定时任务 (每小时清理不再被引用的物品资料)
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                mailboxManager.scheduleItemCleanup();
+            }
+        }.runTaskTimerAsynchronously(this, 72000L, 72000L); // 1小时 = 72000 ticks
+
+        // 设置过期邮件清理定时任务
+        long sweepTicks = Math.max(1L, getConfig().getLong("mailbox.expiration.sweep-interval-minutes", 10)) * 1200L;
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                mailboxManager.expireMails();
+            }
+        }.runTaskTimerAsynchronously(this, 1200L, sweepTicks);
+
+        // 设置多服务器同步定时任务 (共用数据库时重新载入其他服务器修改过的信箱)
+        if (mailboxManager.isRemoteSyncEnabled()) {
+            long pollTicks = Math.max(1L, getConfig().getLong("mysql.sync.poll-interval-ms", 1000) / 50L);
+            new BukkitRunnable() {
+                @Override
+                public void run() {
+                    mailboxManager.pollRemoteChanges();
+                }
+            }.runTaskTimerAsynchronously(this, pollTicks, pollTicks);
+        }
 
         getLogger().info("信箱系统插件已启用!");
     }
 
     @Override
     public void onDisable() {
-        // 保存所有玩家的信箱数据
+        // 写入队列中剩余的修改并保存所有尚未写入的信箱数据
         if (mailboxManager != null) {
-            mailboxManager.saveAllMailboxes();
-            mailboxManager.getDataManager().close();
+            mailboxManager.shutdown();
         }
         getLogger().info("信箱系統插件已停用!");
     }
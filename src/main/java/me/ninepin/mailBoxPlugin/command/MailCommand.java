@@ -1,9 +1,12 @@
 package me.ninepin.mailBoxPlugin.command;
 
+import me.ninepin.mailBoxPlugin.manager.AutoSaveScheduler;
+import me.ninepin.mailBoxPlugin.manager.MailboxCache;
 import me.ninepin.mailBoxPlugin.manager.MailboxManager;
+import me.ninepin.mailBoxPlugin.manager.MailWriteQueue;
+import me.ninepin.mailBoxPlugin.manager.PlayerNameIndex;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -34,7 +37,8 @@ public class MailCommand implements CommandExecutor, TabCompleter {
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (!(sender instanceof Player) && !(args.length > 0 && args[0].equalsIgnoreCase("check"))) {
+        if (!(sender instanceof Player) && !(args.length > 0 &&
+                (args[0].equalsIgnoreCase("check") || args[0].equalsIgnoreCase("stats")))) {
             sender.sendMessage(ChatColor.RED + "此命令只能由玩家使用!");
             return true;
         }
@@ -47,12 +51,16 @@ public class MailCommand implements CommandExecutor, TabCompleter {
         switch (args[0].toLowerCase()) {
             case "box":
                 return handleBoxCommand(sender);
+            case "claimall":
+                return handleClaimAllCommand(sender);
             case "all":
                 return handleAllCommand(sender);
             case "give":
                 return handleGiveCommand(sender, args);
             case "check":
                 return handleCheckCommand(sender, args);
+            case "stats":
+                return handleStatsCommand(sender);
             case "help":
                 sendHelpMessage(sender);
                 return true;
@@ -76,6 +84,20 @@ public class MailCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    /**
+     * 处理 /mail claimall 命令
+     */
+    private boolean handleClaimAllCommand(CommandSender sender) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "此命令只能由玩家使用!");
+            return true;
+        }
+
+        Player player = (Player) sender;
+        mailboxManager.claimAll(player);
+        return true;
+    }
+
     /**
      * 处理 /mail all 命令
      */
@@ -160,6 +182,43 @@ public class MailCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    /**
+     * 处理 /mail stats 命令
+     */
+    private boolean handleStatsCommand(CommandSender sender) {
+        if (!sender.hasPermission("mailbox.admin")) {
+            sender.sendMessage(ChatColor.RED + "您没有权限执行此命令!");
+            return true;
+        }
+
+        MailboxCache cache = mailboxManager.getCache();
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        long requests = hits + misses;
+        String hitRate = requests == 0 ? "-" : String.format("%.1f%%", hits * 100.0 / requests);
+
+        sender.sendMessage(ChatColor.GOLD + "===== 信箱系统统计 =====");
+        sender.sendMessage(ChatColor.YELLOW + "缓存模式: " + ChatColor.WHITE + cache.getMode());
+        sender.sendMessage(ChatColor.YELLOW + "已缓存信箱: " + ChatColor.WHITE + cache.size());
+        sender.sendMessage(ChatColor.YELLOW + "命中/未命中: " + ChatColor.WHITE + hits + "/" + misses +
+                ChatColor.GRAY + " (命中率 " + hitRate + ")");
+        sender.sendMessage(ChatColor.YELLOW + "淘汰次数: " + ChatColor.WHITE + cache.getEvictions());
+        sender.sendMessage(ChatColor.YELLOW + "名称索引: " + ChatColor.WHITE + mailboxManager.getNameIndex().size() + " 名玩家");
+
+        MailWriteQueue writeQueue = mailboxManager.getWriteQueue();
+        sender.sendMessage(ChatColor.YELLOW + "写入队列: " + ChatColor.WHITE + writeQueue.getDepth() + " 项修改 / " +
+                writeQueue.getPendingMailboxes() + " 个信箱");
+        sender.sendMessage(ChatColor.YELLOW + "已写入: " + ChatColor.WHITE + writeQueue.getFlushedMailboxes() + " 个信箱 / " +
+                writeQueue.getFlushedRows() + " 行" + ChatColor.GRAY + " (失败 " + writeQueue.getFailedFlushes() + ")");
+        sender.sendMessage(ChatColor.YELLOW + "写入延迟: " + ChatColor.WHITE + writeQueue.getLastFlushLatencyMillis() + "ms" +
+                ChatColor.GRAY + String.format(" (平均 %.1fms)", writeQueue.getAverageFlushLatencyMillis()));
+
+        AutoSaveScheduler autoSave = mailboxManager.getAutoSave();
+        sender.sendMessage(ChatColor.YELLOW + "自动保存: " + ChatColor.WHITE + (int) autoSave.getRowsPerSecond() + " 行/秒" +
+                ChatColor.GRAY + " (" + autoSave.getShards() + " 个分片, 延后 " + autoSave.getDeferredCount() + " 个信箱)");
+        return true;
+    }
+
     /**
      * 查找玩家UUID
      *
@@ -173,15 +232,8 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             return onlinePlayer.getUniqueId();
         }
 
-        // 然后检查离线玩家
-        for (OfflinePlayer offlinePlayer : Bukkit.getOfflinePlayers()) {
-            String name = offlinePlayer.getName();
-            if (name != null && name.equalsIgnoreCase(playerName)) {
-                return offlinePlayer.getUniqueId();
-            }
-        }
-
-        return null;
+        // 然后查询名称索引，不再遍历所有离线玩家
+        return mailboxManager.getNameIndex().lookup(playerName);
     }
 
     /**
@@ -195,6 +247,7 @@ public class MailCommand implements CommandExecutor, TabCompleter {
         if (sender instanceof Player) {
             Player player = (Player) sender;
             sender.sendMessage(ChatColor.YELLOW + "/mail box" + ChatColor.WHITE + " - 打开您的信箱");
+            sender.sendMessage(ChatColor.YELLOW + "/mail claimall" + ChatColor.WHITE + " - 领取所有能放入背包的物品");
 
             if (player.hasPermission("mailbox.admin") || player.hasPermission("mailbox.check")) {
                 sender.sendMessage(ChatColor.YELLOW + "/mail check <玩家名称>" + ChatColor.WHITE + " - 查看指定玩家的信箱内容");
@@ -203,10 +256,12 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             if (player.hasPermission("mailbox.admin")) {
                 sender.sendMessage(ChatColor.YELLOW + "/mail all" + ChatColor.WHITE + " - 发送物品给所有玩家");
                 sender.sendMessage(ChatColor.YELLOW + "/mail give <玩家名称>" + ChatColor.WHITE + " - 发送物品给指定玩家");
+                sender.sendMessage(ChatColor.YELLOW + "/mail stats" + ChatColor.WHITE + " - 查看信箱系统统计");
             }
         } else {
             // 控制台命令
             sender.sendMessage(ChatColor.YELLOW + "/mail check <玩家名称>" + ChatColor.WHITE + " - 查看指定玩家的信箱内容");
+            sender.sendMessage(ChatColor.YELLOW + "/mail stats" + ChatColor.WHITE + " - 查看信箱系统统计");
         }
 
         sender.sendMessage(ChatColor.YELLOW + "/mail help" + ChatColor.WHITE + " - 显示此帮助信息");
@@ -217,7 +272,7 @@ public class MailCommand implements CommandExecutor, TabCompleter {
         List<String> completions = new ArrayList<>();
 
         if (args.length == 1) {
-            List<String> subCommands = new ArrayList<>(Arrays.asList("box", "help"));
+            List<String> subCommands = new ArrayList<>(Arrays.asList("box", "claimall", "help"));
 
             if (sender.hasPermission("mailbox.check") || sender.hasPermission("mailbox.admin")) {
                 subCommands.add("check");
@@ -226,6 +281,7 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             if (sender.hasPermission("mailbox.admin")) {
                 subCommands.add("all");
                 subCommands.add("give");
+                subCommands.add("stats");
             }
 
             for (String subCommand : subCommands) {
@@ -237,11 +293,8 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             if ((args[0].equalsIgnoreCase("give") && sender.hasPermission("mailbox.admin")) ||
                     (args[0].equalsIgnoreCase("check") && (sender.hasPermission("mailbox.admin") || sender.hasPermission("mailbox.check")))) {
 
-                for (Player player : Bukkit.getOnlinePlayers()) {
-                    if (player.getName().toLowerCase().startsWith(args[1].toLowerCase())) {
-                        completions.add(player.getName());
-                    }
-                }
+                // 名称索引包含在线和离线玩家
+                completions.addAll(mailboxManager.getNameIndex().complete(args[1], PlayerNameIndex.MAX_COMPLETIONS));
             }
         }
 
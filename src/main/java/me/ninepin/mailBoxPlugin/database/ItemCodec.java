@@ -0,0 +1,118 @@
+package me.ninepin.mailBoxPlugin.database;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.logging.Logger;
+
+/**
+ * 物品編碼器
+ * 負責物品與二進位資料之間的轉換，每行資料以格式標記記錄所使用的編碼
+ */
+public class ItemCodec {
+
+    /**
+     * 舊版 Java 物件序列化 (BukkitObjectOutputStream)
+     */
+    public static final int FORMAT_JAVA_SERIALIZATION = 0;
+
+    /**
+     * Paper 提供的 NBT 二進位格式 (ItemStack#serializeAsBytes)，包含資料版本，可跨版本升級
+     */
+    public static final int FORMAT_PAPER_NBT = 1;
+
+    /**
+     * 新寫入的資料所使用的格式
+     */
+    public static final int CURRENT_FORMAT = FORMAT_PAPER_NBT;
+
+    private final Logger logger;
+
+    public ItemCodec(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * 以目前格式編碼物品
+     *
+     * @param item 物品
+     * @return 編碼後的資料，失敗時返回null
+     */
+    public byte[] encode(ItemStack item) {
+        return encode(item, CURRENT_FORMAT);
+    }
+
+    /**
+     * 以指定格式編碼物品
+     *
+     * @param item   物品
+     * @param format 格式標記
+     * @return 編碼後的資料，失敗時返回null
+     */
+    public byte[] encode(ItemStack item, int format) {
+        try {
+            switch (format) {
+                case FORMAT_PAPER_NBT:
+                    return item.serializeAsBytes();
+                case FORMAT_JAVA_SERIALIZATION:
+                    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                         BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
+                        dataOutput.writeObject(item);
+                        dataOutput.flush();
+                        return outputStream.toByteArray();
+                    }
+                default:
+                    throw new IllegalArgumentException("未知的物品格式: " + format);
+            }
+        } catch (Exception e) {
+            logger.warning("序列化物品時出錯: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 計算編碼後資料的內容雜湊
+     *
+     * @param data 編碼後的資料
+     * @return SHA-256 十六進位字串
+     */
+    public static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 按格式標記解碼物品
+     *
+     * @param data   編碼後的資料
+     * @param format 格式標記
+     * @return 物品，失敗時返回null
+     */
+    public ItemStack decode(byte[] data, int format) {
+        try {
+            switch (format) {
+                case FORMAT_PAPER_NBT:
+                    return ItemStack.deserializeBytes(data);
+                case FORMAT_JAVA_SERIALIZATION:
+                    try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+                         BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream)) {
+                        return (ItemStack) dataInput.readObject();
+                    }
+                default:
+                    throw new IllegalArgumentException("未知的物品格式: " + format);
+            }
+        } catch (Exception e) {
+            logger.warning("反序列化物品時出錯: " + e.getMessage());
+            return null;
+        }
+    }
+}
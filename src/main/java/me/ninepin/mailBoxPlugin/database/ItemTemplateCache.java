@@ -0,0 +1,57 @@
+package me.ninepin.mailBoxPlugin.database;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 物品模板緩存
+ * 以內容雜湊為鍵保存已解碼的物品，內容相同的郵件共享同一個物品實例，只需解碼一次
+ * 緩存中的物品視為不可變，使用方在修改或交給玩家前必須先複製
+ */
+public class ItemTemplateCache {
+
+    private final Map<String, ItemStack> templates;
+
+    /**
+     * 構造函數
+     *
+     * @param maxSize 最多緩存的模板數量，超出時淘汰最久未使用的模板
+     */
+    public ItemTemplateCache(int maxSize) {
+        int capacity = Math.max(1, maxSize);
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ItemStack> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 獲取已緩存的模板
+     *
+     * @param hash 物品內容雜湊
+     * @return 物品模板，未緩存時返回null
+     */
+    public synchronized ItemStack get(String hash) {
+        return templates.get(hash);
+    }
+
+    /**
+     * 緩存模板，若已有相同雜湊的模板則返回已有的實例
+     *
+     * @param hash 物品內容雜湊
+     * @param item 解碼後的物品
+     * @return 緩存中的物品模板
+     */
+    public synchronized ItemStack put(String hash, ItemStack item) {
+        ItemStack existing = templates.putIfAbsent(hash, item);
+        return existing != null ? existing : item;
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+}
@@ -0,0 +1,230 @@
+package me.ninepin.mailBoxPlugin.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 段日誌中的一條記錄
+ * 信箱記錄描述一次完整的信箱變更 (與 MailboxChangeSet 對應)，廣播記錄保存一封廣播郵件
+ * 物品保持編碼後的位元組，只有真正載入信箱時才解碼
+ */
+class LogRecord {
+
+    static final byte KIND_MAILBOX = 1;
+    static final byte KIND_BROADCAST = 2;
+
+    final byte kind;
+    final UUID player;
+
+    // 信箱記錄: reset 為 true 時先清空信箱，再依次套用刪除、更新、已讀和新增
+    boolean reset;
+    long watermark = -1;
+    final List<UUID> removed = new ArrayList<>();
+    final List<RawMail> updated = new ArrayList<>();
+    final List<UUID> read = new ArrayList<>();
+    final List<RawMail> appended = new ArrayList<>();
+
+    // 廣播記錄
+    long broadcastId;
+    RawMail broadcast;
+
+    private LogRecord(byte kind, UUID player) {
+        this.kind = kind;
+        this.player = player;
+    }
+
+    static LogRecord mailbox(UUID player) {
+        return new LogRecord(KIND_MAILBOX, player);
+    }
+
+    static LogRecord broadcast(long broadcastId, RawMail mail) {
+        LogRecord record = new LogRecord(KIND_BROADCAST, null);
+        record.broadcastId = broadcastId;
+        record.broadcast = mail;
+        return record;
+    }
+
+    /**
+     * 不解析內容，直接從記錄中讀取所屬玩家
+     *
+     * @param payload 記錄內容
+     * @return 玩家UUID，廣播記錄返回null
+     */
+    static UUID peekPlayer(ByteBuffer payload) {
+        if (payload.get(payload.position()) != KIND_MAILBOX) {
+            return null;
+        }
+        return new UUID(payload.getLong(payload.position() + 1), payload.getLong(payload.position() + 9));
+    }
+
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        if (kind == KIND_BROADCAST) {
+            out.writeLong(broadcastId);
+            writeMail(out, broadcast);
+        } else {
+            writeUUID(out, player);
+            out.writeBoolean(reset);
+            out.writeLong(watermark);
+            writeIds(out, removed);
+            writeMails(out, updated);
+            writeIds(out, read);
+            writeMails(out, appended);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static LogRecord decode(ByteBuffer in) {
+        byte kind = in.get();
+        if (kind == KIND_BROADCAST) {
+            long broadcastId = in.getLong();
+            return broadcast(broadcastId, readMail(in));
+        }
+        if (kind != KIND_MAILBOX) {
+            throw new IllegalStateException("未知的記錄類型: " + kind);
+        }
+
+        LogRecord record = mailbox(readUUID(in));
+        record.reset = in.get() != 0;
+        record.watermark = in.getLong();
+        readIds(in, record.removed);
+        readMails(in, record.updated);
+        readIds(in, record.read);
+        readMails(in, record.appended);
+        return record;
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+
+    private static void writeIds(DataOutputStream out, List<UUID> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (UUID id : ids) {
+            writeUUID(out, id);
+        }
+    }
+
+    private static void readIds(ByteBuffer in, List<UUID> ids) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            ids.add(readUUID(in));
+        }
+    }
+
+    private static void writeMail(DataOutputStream out, RawMail mail) throws IOException {
+        writeUUID(out, mail.id);
+        out.writeLong(mail.timestamp);
+        out.writeBoolean(mail.read);
+        out.writeByte(mail.format);
+        out.writeInt(mail.data.length);
+        out.write(mail.data);
+    }
+
+    private static RawMail readMail(ByteBuffer in) {
+        UUID id = readUUID(in);
+        long timestamp = in.getLong();
+        boolean read = in.get() != 0;
+        int format = in.get();
+        byte[] data = new byte[in.getInt()];
+        in.get(data);
+        return new RawMail(id, timestamp, read, format, data);
+    }
+
+    private static void writeMails(DataOutputStream out, List<RawMail> mails) throws IOException {
+        out.writeInt(mails.size());
+        for (RawMail mail : mails) {
+            writeMail(out, mail);
+        }
+    }
+
+    private static void readMails(ByteBuffer in, List<RawMail> mails) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            mails.add(readMail(in));
+        }
+    }
+
+    /**
+     * 尚未解碼物品的郵件
+     */
+    static class RawMail {
+        final UUID id;
+        final long timestamp;
+        final boolean read;
+        final int format;
+        final byte[] data;
+
+        RawMail(UUID id, long timestamp, boolean read, int format, byte[] data) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.read = read;
+            this.format = format;
+            this.data = data;
+        }
+
+        RawMail asRead() {
+            return read ? this : new RawMail(id, timestamp, true, format, data);
+        }
+    }
+
+    /**
+     * 依次套用一個玩家的所有記錄後得到的信箱狀態
+     */
+    static class MailboxState {
+        final Map<UUID, RawMail> mails = new LinkedHashMap<>();
+        long watermark;
+
+        void apply(LogRecord record) {
+            if (record.reset) {
+                mails.clear();
+            }
+            for (UUID id : record.removed) {
+                mails.remove(id);
+            }
+            for (RawMail mail : record.updated) {
+                mails.replace(mail.id, mail);
+            }
+            for (UUID id : record.read) {
+                mails.computeIfPresent(id, (key, mail) -> mail.asRead());
+            }
+            for (RawMail mail : record.appended) {
+                mails.put(mail.id, mail);
+            }
+            watermark = Math.max(watermark, record.watermark);
+        }
+
+        /**
+         * 移除早於指定時間的郵件
+         */
+        void expire(long cutoff) {
+            mails.values().removeIf(mail -> mail.timestamp < cutoff);
+        }
+
+        /**
+         * 將狀態寫成一條重置記錄，用於壓縮
+         */
+        LogRecord toRecord(UUID player) {
+            LogRecord record = mailbox(player);
+            record.reset = true;
+            record.watermark = watermark;
+            record.appended.addAll(mails.values());
+            return record;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package me.ninepin.mailBoxPlugin.database;
+
+import me.ninepin.mailBoxPlugin.manager.IDataManager;
+import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 信箱預寫日誌
+ * 每次信箱修改在進入寫入隊列前先追加到本地日誌，同步線程按固定間隔批量 fsync (組提交)
+ * 追加不等待 fsync：伺服器進程崩潰時修改已在操作系統緩衝區中不會丟失，
+ * 但操作系統崩潰或斷電時最多丟失最近一個組提交間隔內的修改
+ * 存儲寫入成功後推進檢查點：已寫入的最大序號記錄在檢查點文件中，只包含已寫入修改的日誌文件會被刪除
+ * 啟動時重放殘留日誌中序號大於檢查點的記錄，把崩潰前尚未寫入存儲的修改補寫回去；
+ * 已寫入的記錄不再重放，否則之後被領取或刪除的郵件會被重新加回信箱
+ */
+public class MailJournal {
+
+    private static final String SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "applied.checkpoint";
+    private static final int CHECKPOINT_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long ROTATE_WHEN_APPLIED_SIZE = 1024 * 1024;
+
+    private final File folder;
+    private final Logger logger;
+    private final ItemCodec codec;
+    private final long maxFileSize;
+    private final ScheduledExecutorService syncer;
+
+    private final Object lock = new Object();
+    private final Deque<JournalFile> files = new ArrayDeque<>();
+    private JournalFile active;
+    private long lastSeq;
+    private boolean unsynced;
+    private FileChannel checkpointChannel;
+    private long savedAppliedSeq;
+    // 重放失敗而保留的記錄中最小的序號之前，檢查點不能越過這些記錄
+    private long checkpointLimit = Long.MAX_VALUE;
+
+    /**
+     * 構造函數
+     *
+     * @param folder          日誌文件夾
+     * @param logger          日誌記錄器
+     * @param groupCommitMs   批量 fsync 的間隔 (毫秒)
+     * @param maxFileSize     單個日誌文件的大小上限 (位元組)
+     */
+    public MailJournal(File folder, Logger logger, long groupCommitMs, long maxFileSize) {
+        this.folder = folder;
+        this.logger = logger;
+        this.codec = new ItemCodec(logger);
+        this.maxFileSize = Math.max(1024 * 1024, maxFileSize);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MailboxPlugin-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, groupCommitMs);
+        this.syncer.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 重放上次運行殘留的日誌，並開始新的日誌文件
+     * 只重放序號大於檢查點的記錄；重放以信箱為單位讀取存儲中的郵件和版本、依次套用日誌記錄後按版本保存，重複套用已寫入的修改不會改變結果；
+     * 崩潰後其他伺服器已修改過的信箱會與日誌中的修改逐封合併，而不是被覆蓋
+     *
+     * @param dataManager 數據管理器
+     * @return 重放的記錄數量
+     */
+    public int replay(IDataManager dataManager) throws IOException {
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        File[] found = folder.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        List<File> leftovers = found == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(found));
+        leftovers.sort(Comparator.comparingLong(MailJournal::startSeqOf));
+
+        long applied = readCheckpoint();
+        Map<UUID, List<LogRecord>> records = new LinkedHashMap<>();
+        Map<UUID, Long> firstSeqs = new HashMap<>();
+        int count = 0;
+        for (File file : leftovers) {
+            count += read(file, applied, records, firstSeqs);
+        }
+
+        int failed = 0;
+        for (Map.Entry<UUID, List<LogRecord>> entry : records.entrySet()) {
+            if (!replayMailbox(dataManager, entry.getKey(), entry.getValue())) {
+                failed++;
+                checkpointLimit = Math.min(checkpointLimit, firstSeqs.get(entry.getKey()) - 1);
+            }
+        }
+
+        // 有信箱未能寫入時保留舊日誌，下次啟動再重放
+        if (failed > 0) {
+            logger.severe("有 " + failed + " 個信箱的日誌重放失敗，日誌已保留");
+        } else {
+            for (File file : leftovers) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+
+        synchronized (lock) {
+            // 日誌文件都已刪除時序號從檢查點之後繼續，新的記錄不會被誤認為已寫入
+            lastSeq = Math.max(lastSeq, applied);
+            savedAppliedSeq = applied;
+            checkpointChannel = FileChannel.open(new File(folder, CHECKPOINT_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            active = openFile(lastSeq + 1);
+        }
+        if (count > 0) {
+            logger.info("已重放 " + count + " 條信箱日誌記錄 (" + records.size() + " 個信箱)");
+        }
+        return count;
+    }
+
+    /**
+     * 讀取檢查點文件中記錄的已寫入序號，文件不存在或內容不完整時返回0 (重放全部記錄)
+     */
+    private long readCheckpoint() throws IOException {
+        File file = new File(folder, CHECKPOINT_FILE);
+        if (!file.exists() || file.length() < CHECKPOINT_SIZE) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()), 0, CHECKPOINT_SIZE);
+        long seq = buffer.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 8);
+        if ((int) crc.getValue() != buffer.getInt()) {
+            logger.warning("信箱日誌檢查點已損壞，將重放全部日誌記錄");
+            return 0;
+        }
+        return seq;
+    }
+
+    /**
+     * 把已寫入的序號寫入檢查點文件，與日誌一起在組提交時落盤
+     */
+    private void saveCheckpoint(long appliedSeq) {
+        appliedSeq = Math.min(appliedSeq, checkpointLimit);
+        if (checkpointChannel == null || appliedSeq <= savedAppliedSeq) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        buffer.putLong(appliedSeq);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 8);
+        buffer.putInt((int) crc.getValue()).flip();
+        try {
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += checkpointChannel.write(buffer, position);
+            }
+            savedAppliedSeq = appliedSeq;
+            unsynced = true;
+        } catch (IOException e) {
+            logger.severe("寫入信箱日誌檢查點時出錯: " + e.getMessage());
+        }
+    }
+
+    private int read(File file, long applied, Map<UUID, List<LogRecord>> records,
+                     Map<UUID, Long> firstSeqs) throws IOException {
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 讀取整個文件
+            }
+            buffer.flip();
+
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    // 寫到一半的記錄，之後的內容無效
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+
+                long seq = payload.getLong();
+                lastSeq = Math.max(lastSeq, seq);
+                if (seq <= applied) {
+                    // 已寫入存儲的記錄
+                    continue;
+                }
+                LogRecord record = LogRecord.decode(payload);
+                records.computeIfAbsent(record.player, uuid -> new ArrayList<>()).add(record);
+                firstSeqs.merge(record.player, seq, Math::min);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean replayMailbox(IDataManager dataManager, UUID playerUUID, List<LogRecord> records) {
+        long baseVersion = dataManager.loadMailboxVersion(playerUUID);
+        List<MailItem> base;
+        try {
+            base = dataManager.loadPlayerMailbox(playerUUID);
+        } catch (IllegalStateException e) {
+            // 讀取失敗時不能當作空信箱重放，保留日誌待下次啟動
+            return false;
+        }
+
+        // 存儲中的郵件不需要重新編碼，沒有被日誌修改內容的郵件沿用讀取到的物品
+        Map<UUID, MailItem> baseById = new HashMap<>();
+        LogRecord.MailboxState state = new LogRecord.MailboxState();
+        for (MailItem mail : base) {
+            baseById.put(mail.getId(), mail);
+            state.mails.put(mail.getId(), new LogRecord.RawMail(mail.getId(), mail.getTimestamp(),
+                    mail.isRead(), ItemCodec.CURRENT_FORMAT, null));
+        }
+        long watermark = -1;
+        for (LogRecord record : records) {
+            state.apply(record);
+            watermark = Math.max(watermark, record.watermark);
+        }
+
+        List<MailItem> mails = new ArrayList<>(state.mails.size());
+        for (LogRecord.RawMail raw : state.mails.values()) {
+            if (raw.data == null) {
+                MailItem stored = baseById.get(raw.id);
+                mails.add(raw.read && !stored.isRead() ? stored.asRead() : stored);
+                continue;
+            }
+            ItemStack item = codec.decode(raw.data, raw.format);
+            if (item != null) {
+                mails.add(new MailItem(raw.id, item, raw.timestamp, raw.read));
+            }
+        }
+        if (!dataManager.saveMailbox(playerUUID, base, baseVersion, mails).isSaved()) {
+            return false;
+        }
+        if (watermark >= 0) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.setBroadcastWatermark(watermark);
+            return dataManager.applyChanges(playerUUID, changes) >= 0;
+        }
+        return true;
+    }
+
+    /**
+     * 追加一次信箱修改，返回後修改已寫入操作系統緩衝區，下次組提交時落盤 (不等待落盤，避免阻塞主線程)
+     *
+     * @param playerUUID 玩家UUID
+     * @param changes    修改內容
+     * @return 日誌序號，寫入失敗時返回-1
+     */
+    public long append(UUID playerUUID, MailboxChangeSet changes) {
+        LogRecord record = LogRecord.mailbox(playerUUID);
+        record.watermark = changes.getBroadcastWatermark();
+        record.removed.addAll(changes.getRemoved());
+        record.read.addAll(changes.getRead());
+        for (MailItem mail : changes.getUpdated()) {
+            LogRecord.RawMail raw = encode(mail);
+            if (raw != null) {
+                record.updated.add(raw);
+            }
+        }
+        for (MailItem mail : changes.getAppended()) {
+            LogRecord.RawMail raw = encode(mail);
+            if (raw != null) {
+                record.appended.add(raw);
+            }
+        }
+
+        synchronized (lock) {
+            if (active == null) {
+                return -1;
+            }
+            try {
+                long seq = lastSeq + 1;
+                byte[] body = record.encode();
+                ByteBuffer payload = ByteBuffer.allocate(8 + body.length);
+                payload.putLong(seq).put(body).flip();
+                CRC32 crc = new CRC32();
+                crc.update(payload.duplicate());
+
+                ByteBuffer frame = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining());
+                frame.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+                while (frame.hasRemaining()) {
+                    active.channel.write(frame);
+                }
+
+                lastSeq = seq;
+                active.lastSeq = seq;
+                unsynced = true;
+                if (active.channel.size() >= maxFileSize) {
+                    rotate();
+                }
+                return seq;
+            } catch (IOException e) {
+                logger.severe("寫入信箱日誌時出錯: " + e.getMessage());
+                return -1;
+            }
+        }
+    }
+
+    private LogRecord.RawMail encode(MailItem mail) {
+        byte[] data = codec.encode(mail.getItem());
+        if (data == null) {
+            return null;
+        }
+        return new LogRecord.RawMail(mail.getId(), mail.getTimestamp(), mail.isRead(), ItemCodec.CURRENT_FORMAT, data);
+    }
+
+    /**
+     * 組提交：把上次同步後追加的所有記錄一次性落盤
+     */
+    private void sync() {
+        FileChannel channel;
+        FileChannel checkpoint;
+        synchronized (lock) {
+            if (!unsynced || active == null) {
+                return;
+            }
+            channel = active.channel;
+            checkpoint = checkpointChannel;
+            unsynced = false;
+        }
+        try {
+            channel.force(false);
+            if (checkpoint != null) {
+                checkpoint.force(false);
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                unsynced = true;
+            }
+            logger.severe("同步信箱日誌時出錯: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 記錄序號不大於 appliedSeq 的修改都已寫入存儲，保存檢查點並刪除不再需要的日誌文件
+     *
+     * @param appliedSeq 已寫入存儲的最大連續序號
+     */
+    public void checkpoint(long appliedSeq) {
+        synchronized (lock) {
+            saveCheckpoint(appliedSeq);
+
+            // 當前文件已足夠大且其中的修改全部寫入時輪替，使其可以被刪除
+            if (active != null && active.lastSeq >= active.startSeq && active.lastSeq <= appliedSeq) {
+                try {
+                    if (active.channel.size() >= ROTATE_WHEN_APPLIED_SIZE) {
+                        rotate();
+                    }
+                } catch (IOException e) {
+                    logger.severe("輪替信箱日誌時出錯: " + e.getMessage());
+                }
+            }
+
+            Iterator<JournalFile> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                JournalFile file = iterator.next();
+                if (file == active || file.lastSeq > appliedSeq) {
+                    break;
+                }
+                iterator.remove();
+                file.delete();
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        active.channel.force(false);
+        active = openFile(lastSeq + 1);
+    }
+
+    private JournalFile openFile(long startSeq) throws IOException {
+        File file = new File(folder, startSeq + SUFFIX);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        JournalFile journalFile = new JournalFile(file, channel, startSeq);
+        files.addLast(journalFile);
+        return journalFile;
+    }
+
+    private static long startSeqOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 獲取最後分配的日誌序號
+     *
+     * @return 日誌序號
+     */
+    public long getLastSeq() {
+        synchronized (lock) {
+            return lastSeq;
+        }
+    }
+
+    /**
+     * 停止同步線程並落盤剩餘記錄
+     *
+     * @param appliedSeq 已寫入存儲的最大連續序號
+     */
+    public void close(long appliedSeq) {
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            saveCheckpoint(appliedSeq);
+        }
+        sync();
+        synchronized (lock) {
+            if (checkpointChannel != null) {
+                try {
+                    checkpointChannel.close();
+                } catch (IOException e) {
+                    logger.warning("關閉信箱日誌檢查點時出錯: " + e.getMessage());
+                }
+                checkpointChannel = null;
+            }
+            // 所有修改都已寫入存儲時不需要保留日誌 (保留有重放失敗記錄的日誌)
+            boolean applied = appliedSeq >= lastSeq && checkpointLimit == Long.MAX_VALUE;
+            for (JournalFile file : files) {
+                if (applied) {
+                    file.delete();
+                } else {
+                    file.close();
+                }
+            }
+            files.clear();
+            active = null;
+        }
+    }
+
+    private class JournalFile {
+        private final File file;
+        private final FileChannel channel;
+        private final long startSeq;
+        private long lastSeq;
+
+        private JournalFile(File file, FileChannel channel, long startSeq) {
+            this.file = file;
+            this.channel = channel;
+            this.startSeq = startSeq;
+            this.lastSeq = startSeq - 1;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("關閉信箱日誌文件時出錯: " + file.getName() + " - " + e.getMessage());
+            }
+        }
+
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                logger.warning("刪除信箱日誌文件時出錯: " + file.getName() + " - " + e.getMessage());
+            }
+        }
+    }
+}
@@ -2,29 +2,60 @@ package me.ninepin.mailBoxPlugin.database;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import me.ninepin.mailBoxPlugin.enums.ClaimResult;
 import me.ninepin.mailBoxPlugin.manager.IDataManager;
+import me.ninepin.mailBoxPlugin.model.BroadcastMail;
 import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailStatistics;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import me.ninepin.mailBoxPlugin.model.MailboxMerge;
+import me.ninepin.mailBoxPlugin.model.MailboxSaveResult;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MySQLDataManager implements IDataManager {
 
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
     private final JavaPlugin plugin;
     private final String tablePrefix;
+    private final ItemCodec codec;
+    private final ItemTemplateCache templateCache;
+    private final Set<String> knownHashes = ConcurrentHashMap.newKeySet();
+    private final long blobGraceMillis;
+    private volatile long mailExpireMillis = -1;
     private HikariDataSource dataSource;
 
+    // 多伺服器同步: 每次修改在變更日誌中記錄受影響的玩家，其他伺服器輪詢後只重新載入這些玩家的信箱
+    private final boolean changelogEnabled;
+    private final String serverId;
+    private final int changelogBatchSize;
+    private final long changelogRetentionMinutes;
+    // 以下欄位只在輪詢線程上訪問
+    private long changelogCursor = -1;
+    private final Set<Long> seenChanges = new HashSet<>();
+    private long lastChangelogPrune;
+
     public MySQLDataManager(JavaPlugin plugin) {
         this.plugin = plugin;
         FileConfiguration config = plugin.getConfig();
         this.tablePrefix = config.getString("mysql.table-prefix", "mailbox_");
+        this.codec = new ItemCodec(plugin.getLogger());
+        this.templateCache = new ItemTemplateCache(config.getInt("mysql.item-blobs.template-cache-size", 10000));
+        this.blobGraceMillis = config.getLong("mysql.item-blobs.gc-grace-minutes", 60) * 60_000L;
+        this.changelogEnabled = config.getBoolean("mysql.sync.enabled", false);
+        String configuredId = config.getString("mysql.sync.server-id", "");
+        this.serverId = configuredId == null || configuredId.isEmpty() ? UUID.randomUUID().toString() : configuredId;
+        this.changelogBatchSize = Math.max(1, config.getInt("mysql.sync.poll-batch-size", 500));
+        this.changelogRetentionMinutes = Math.max(1L, config.getLong("mysql.sync.retention-minutes", 10));
     }
 
     @Override
@@ -51,146 +82,1193 @@ public class MySQLDataManager implements IDataManager {
 
         dataSource = new HikariDataSource(hikariConfig);
         createTables();
+
+        // 可選: 在背景將舊格式的物品資料轉換為目前格式
+        if (config.getBoolean("mysql.item-codec.reencode-legacy", false)) {
+            int batchSize = Math.max(1, config.getInt("mysql.item-codec.reencode-batch-size", 200));
+            Thread thread = new Thread(() -> {
+                reencodeLegacyItems("mails", batchSize);
+                reencodeLegacyItems("broadcasts", batchSize);
+            }, "MailboxPlugin-Reencoder");
+            thread.setDaemon(true);
+            thread.start();
+        }
     }
 
     private void createTables() {
         String sql = "CREATE TABLE IF NOT EXISTS " + tablePrefix + "mails (" +
                 "id INT AUTO_INCREMENT PRIMARY KEY," +
+                "mail_id VARCHAR(36) NOT NULL," +
                 "player_uuid VARCHAR(36) NOT NULL," +
-                "item_data LONGBLOB NOT NULL," +
+                "item_data LONGBLOB NULL," +
+                "item_format TINYINT NOT NULL DEFAULT 0," +
+                "item_hash CHAR(64) NULL," +
                 "timestamp BIGINT NOT NULL," +
                 "is_read BOOLEAN NOT NULL DEFAULT FALSE," +
-                "INDEX idx_player_uuid (player_uuid)" +
+                "INDEX idx_player_uuid (player_uuid)," +
+                "INDEX idx_item_hash (item_hash)," +
+                "INDEX idx_player_timestamp (player_uuid, timestamp)," +
+                "INDEX idx_timestamp (timestamp)," +
+                "UNIQUE INDEX idx_mail_id (mail_id)" +
+                ") ENGINE=InnoDB";
+
+        String broadcastSql = "CREATE TABLE IF NOT EXISTS " + tablePrefix + "broadcasts (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "item_data LONGBLOB NOT NULL," +
+                "item_format TINYINT NOT NULL DEFAULT 0," +
+                "timestamp BIGINT NOT NULL" +
+                ") ENGINE=InnoDB";
+
+        // 內容相同的物品只保存一份，郵件以內容雜湊引用
+        String blobSql = "CREATE TABLE IF NOT EXISTS " + tablePrefix + "item_blobs (" +
+                "hash CHAR(64) NOT NULL PRIMARY KEY," +
+                "item_data LONGBLOB NOT NULL," +
+                "item_format TINYINT NOT NULL," +
+                "last_used BIGINT NOT NULL" +
+                ") ENGINE=InnoDB";
+
+        String watermarkSql = "CREATE TABLE IF NOT EXISTS " + tablePrefix + "broadcast_watermarks (" +
+                "player_uuid VARCHAR(36) NOT NULL PRIMARY KEY," +
+                "broadcast_id BIGINT NOT NULL" +
+                ") ENGINE=InnoDB";
+
+        // 變更日誌: 每次修改記錄一行受影響的玩家，供其他伺服器輪詢
+        String changelogSql = "CREATE TABLE IF NOT EXISTS " + tablePrefix + "changelog (" +
+                "seq BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "player_uuid VARCHAR(36) NOT NULL," +
+                "server_id VARCHAR(64) NOT NULL," +
+                "created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)," +
+                "INDEX idx_created_at (created_at)" +
+                ") ENGINE=InnoDB";
+
+        // 每個信箱的版本，每次修改加一，整體保存時以此檢查是否有其他寫入方
+        String versionSql = "CREATE TABLE IF NOT EXISTS " + tablePrefix + "mailbox_versions (" +
+                "player_uuid VARCHAR(36) NOT NULL PRIMARY KEY," +
+                "version BIGINT NOT NULL" +
                 ") ENGINE=InnoDB";
 
         try (Connection conn = dataSource.getConnection();
              Statement stmt = conn.createStatement()) {
             stmt.executeUpdate(sql);
+            stmt.executeUpdate(broadcastSql);
+            stmt.executeUpdate(blobSql);
+            stmt.executeUpdate(watermarkSql);
+            stmt.executeUpdate(changelogSql);
+            stmt.executeUpdate(versionSql);
+            ensureMailIdColumn(conn);
+            ensureIndex(conn, "mails", "idx_player_timestamp", "player_uuid, timestamp");
+            ensureIndex(conn, "mails", "idx_timestamp", "timestamp");
+            ensureItemFormatColumn(conn, "mails");
+            ensureItemFormatColumn(conn, "broadcasts");
+            ensureIndex(conn, "mails", "idx_item_format", "item_format");
+            ensureItemHashColumn(conn);
+            ensureIndex(conn, "mails", "idx_item_hash", "item_hash");
         } catch (SQLException e) {
             plugin.getLogger().severe("無法創建資料表: " + e.getMessage());
         }
     }
 
+    /**
+     * 為舊版本建立的資料表補上郵件ID欄位，並為現有郵件生成ID
+     */
+    private void ensureMailIdColumn(Connection conn) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, tablePrefix + "mails", "mail_id")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + tablePrefix + "mails ADD COLUMN mail_id VARCHAR(36) NULL AFTER id");
+            stmt.executeUpdate("UPDATE " + tablePrefix + "mails SET mail_id = UUID() WHERE mail_id IS NULL");
+            stmt.executeUpdate("ALTER TABLE " + tablePrefix + "mails MODIFY mail_id VARCHAR(36) NOT NULL, " +
+                    "ADD UNIQUE INDEX idx_mail_id (mail_id)");
+        }
+        plugin.getLogger().info("已為現有郵件生成郵件ID");
+    }
+
+    /**
+     * 為舊版本建立的資料表補上物品格式欄位，現有資料均標記為 Java 序列化格式
+     */
+    private void ensureItemFormatColumn(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, tablePrefix + table, "item_format")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + tablePrefix + table + " ADD COLUMN item_format TINYINT NOT NULL DEFAULT " +
+                    ItemCodec.FORMAT_JAVA_SERIALIZATION + " AFTER item_data");
+        }
+    }
+
+    /**
+     * 為舊版本建立的郵件表補上物品雜湊欄位，現有郵件繼續使用行內的物品資料
+     */
+    private void ensureItemHashColumn(Connection conn) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, tablePrefix + "mails", "item_hash")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + tablePrefix + "mails MODIFY item_data LONGBLOB NULL, " +
+                    "ADD COLUMN item_hash CHAR(64) NULL AFTER item_format");
+        }
+    }
+
+    /**
+     * 為舊版本建立的資料表補上缺少的索引
+     */
+    private void ensureIndex(Connection conn, String table, String indexName, String columns) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, tablePrefix + table, false, false)) {
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return;
+                }
+            }
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + tablePrefix + table + " ADD INDEX " + indexName + " (" + columns + ")");
+        }
+    }
+
     @Override
     public Map<UUID, List<MailItem>> loadAllMailboxes() {
-        Map<UUID, List<MailItem>> playerMailboxes = new HashMap<>();
+        Map<UUID, List<CompletableFuture<MailItem>>> pendingMailboxes = new HashMap<>();
+        Map<String, CompletableFuture<ItemStack>> pendingTemplates = new HashMap<>();
+
+        // 單次查詢按玩家和時間排序，逐行串流讀取並在讀取時分組
+        String sql = "SELECT player_uuid, mail_id, item_data, item_format, item_hash, timestamp, is_read FROM " + tablePrefix +
+                "mails WHERE timestamp >= ? ORDER BY player_uuid, timestamp ASC";
 
-        String sql = "SELECT DISTINCT player_uuid FROM " + tablePrefix + "mails";
+        // 物品反序列化交給工作線程池並行處理
+        ExecutorService decoder = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors()), runnable -> {
+                    Thread thread = new Thread(runnable, "MailboxPlugin-Decoder");
+                    thread.setDaemon(true);
+                    return thread;
+                });
 
         try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+             PreparedStatement stmt = conn.prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
 
-            while (rs.next()) {
-                UUID playerUUID = UUID.fromString(rs.getString("player_uuid"));
-                List<MailItem> mailItems = loadPlayerMailbox(playerUUID);
-                playerMailboxes.put(playerUUID, mailItems);
+            // MySQL Connector/J 在 fetchSize 為 Integer.MIN_VALUE 時逐行串流結果集
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            // 過期的郵件不讀取也不解碼
+            stmt.setLong(1, expiryCutoff());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                String currentUUID = null;
+                List<CompletableFuture<MailItem>> currentMails = null;
+
+                while (rs.next()) {
+                    String uuidStr = rs.getString("player_uuid");
+                    if (!uuidStr.equals(currentUUID)) {
+                        currentUUID = uuidStr;
+                        currentMails = new ArrayList<>();
+                        pendingMailboxes.put(UUID.fromString(uuidStr), currentMails);
+                    }
+
+                    UUID mailId = UUID.fromString(rs.getString("mail_id"));
+                    byte[] itemData = rs.getBytes("item_data");
+                    int itemFormat = rs.getInt("item_format");
+                    String itemHash = rs.getString("item_hash");
+                    long timestamp = rs.getLong("timestamp");
+                    boolean isRead = rs.getBoolean("is_read");
+
+                    // 引用共享物品的郵件等讀取完畢後按雜湊統一解碼
+                    if (itemHash != null) {
+                        currentMails.add(pendingTemplates.computeIfAbsent(itemHash, hash -> new CompletableFuture<>())
+                                .thenApply(item -> item != null ? new MailItem(mailId, item, timestamp, isRead) : null));
+                        continue;
+                    }
+
+                    currentMails.add(CompletableFuture.supplyAsync(() -> {
+                        ItemStack item = codec.decode(itemData, itemFormat);
+                        return item != null ? new MailItem(mailId, item, timestamp, isRead) : null;
+                    }, decoder));
+                }
             }
         } catch (SQLException e) {
             plugin.getLogger().severe("加載所有信箱資料時出錯: " + e.getMessage());
+        } finally {
+            decoder.shutdown();
+        }
+        completeTemplates(pendingTemplates);
+
+        Map<UUID, List<MailItem>> playerMailboxes = new HashMap<>();
+        for (Map.Entry<UUID, List<CompletableFuture<MailItem>>> entry : pendingMailboxes.entrySet()) {
+            List<MailItem> mailItems = new ArrayList<>(entry.getValue().size());
+            for (CompletableFuture<MailItem> future : entry.getValue()) {
+                MailItem mailItem = future.join();
+                if (mailItem != null) {
+                    mailItems.add(mailItem);
+                }
+            }
+            playerMailboxes.put(entry.getKey(), mailItems);
         }
 
         return playerMailboxes;
     }
 
+    /**
+     * 讀取失敗時拋出異常，不返回空列表，避免把空信箱放入緩存後再保存覆蓋存儲中的郵件
+     */
     @Override
     public List<MailItem> loadPlayerMailbox(UUID playerUUID) {
-        List<MailItem> mailItems = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection()) {
+            return readMailbox(conn, playerUUID);
+        } catch (SQLException e) {
+            plugin.getLogger().severe("加載玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+            throw new IllegalStateException("無法讀取玩家信箱: " + playerUUID, e);
+        }
+    }
 
-        String sql = "SELECT item_data, timestamp, is_read FROM " + tablePrefix +
-                "mails WHERE player_uuid = ? ORDER BY timestamp DESC";
+    /**
+     * 讀取玩家的郵件，讀取失敗時拋出異常而不是返回空列表 (合併時空列表會被當作郵件已被刪除)
+     */
+    private List<MailItem> readMailbox(Connection conn, UUID playerUUID) throws SQLException {
+        List<CompletableFuture<MailItem>> pendingMails = new ArrayList<>();
+        Map<String, CompletableFuture<ItemStack>> pendingTemplates = new HashMap<>();
 
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        String sql = "SELECT mail_id, item_data, item_format, item_hash, timestamp, is_read FROM " + tablePrefix +
+                "mails WHERE player_uuid = ? AND timestamp >= ? ORDER BY timestamp ASC";
 
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, playerUUID.toString());
+            stmt.setLong(2, expiryCutoff());
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
+                    UUID mailId = UUID.fromString(rs.getString("mail_id"));
                     byte[] itemData = rs.getBytes("item_data");
+                    int itemFormat = rs.getInt("item_format");
+                    String itemHash = rs.getString("item_hash");
                     long timestamp = rs.getLong("timestamp");
                     boolean isRead = rs.getBoolean("is_read");
 
-                    ItemStack item = deserializeItemStack(itemData);
-                    if (item != null) {
-                        mailItems.add(new MailItem(item, timestamp, isRead));
+                    CompletableFuture<ItemStack> item = itemHash != null
+                            ? pendingTemplates.computeIfAbsent(itemHash, hash -> new CompletableFuture<>())
+                            : CompletableFuture.completedFuture(codec.decode(itemData, itemFormat));
+                    pendingMails.add(item.thenApply(decoded ->
+                            decoded != null ? new MailItem(mailId, decoded, timestamp, isRead) : null));
+                }
+            }
+        }
+        completeTemplates(pendingTemplates);
+
+        List<MailItem> mailItems = new ArrayList<>(pendingMails.size());
+        for (CompletableFuture<MailItem> future : pendingMails) {
+            MailItem mailItem = future.join();
+            if (mailItem != null) {
+                mailItems.add(mailItem);
+            }
+        }
+        return mailItems;
+    }
+
+    /**
+     * 按雜湊讀取共享物品並完成等待中的解碼，每個雜湊只解碼一次
+     * 讀取失敗或不存在的物品以null完成
+     */
+    private void completeTemplates(Map<String, CompletableFuture<ItemStack>> pendingTemplates) {
+        if (pendingTemplates.isEmpty()) {
+            return;
+        }
+        Map<String, ItemStack> templates = resolveTemplates(pendingTemplates.keySet());
+        for (Map.Entry<String, CompletableFuture<ItemStack>> entry : pendingTemplates.entrySet()) {
+            ItemStack template = templates.get(entry.getKey());
+            if (template == null) {
+                plugin.getLogger().warning("找不到共享物品資料: " + entry.getKey());
+            }
+            entry.getValue().complete(template);
+        }
+    }
+
+    /**
+     * 獲取共享物品模板，未緩存的模板分批從物品表讀取並解碼
+     *
+     * @param hashes 物品內容雜湊
+     * @return 雜湊到物品模板的映射
+     */
+    private Map<String, ItemStack> resolveTemplates(Collection<String> hashes) {
+        Map<String, ItemStack> templates = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String hash : hashes) {
+            ItemStack template = templateCache.get(hash);
+            if (template != null) {
+                templates.put(hash, template);
+            } else {
+                missing.add(hash);
+            }
+        }
+
+        for (int from = 0; from < missing.size(); from += 500) {
+            List<String> chunk = missing.subList(from, Math.min(missing.size(), from + 500));
+            String sql = "SELECT hash, item_data, item_format FROM " + tablePrefix + "item_blobs WHERE hash IN (" +
+                    String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setString(i + 1, chunk.get(i));
+                }
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String hash = rs.getString("hash");
+                        ItemStack item = codec.decode(rs.getBytes("item_data"), rs.getInt("item_format"));
+                        if (item != null) {
+                            templates.put(hash, templateCache.put(hash, item));
+                            knownHashes.add(hash);
+                        }
                     }
                 }
+            } catch (SQLException e) {
+                plugin.getLogger().severe("加載共享物品資料時出錯: " + e.getMessage());
+            }
+        }
+
+        return templates;
+    }
+
+    /**
+     * 保存物品內容，內容相同的物品只保存一份，必須與引用它的郵件在同一個交易中呼叫
+     * 已存在的物品也會在交易中更新 last_used 並鎖定該行，其他伺服器的清理無法在郵件寫入前刪除它；
+     * 已知雜湊只用於省去重新上傳物品內容，不作為物品仍然存在的依據
+     * 本交易已寫入的雜湊記錄到 insertedHashes，交易提交後才能加入已知雜湊
+     *
+     * @return 物品內容雜湊，編碼失敗時返回null
+     */
+    private String storeItemBlob(Connection conn, ItemStack item, Set<String> insertedHashes) throws SQLException {
+        byte[] itemData = codec.encode(item);
+        if (itemData == null) {
+            return null;
+        }
+        String hash = ItemCodec.hash(itemData);
+        if (insertedHashes.contains(hash)) {
+            return hash;
+        }
+
+        if (knownHashes.contains(hash)) {
+            String touchSql = "UPDATE " + tablePrefix + "item_blobs SET last_used = ? WHERE hash = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(touchSql)) {
+                stmt.setLong(1, System.currentTimeMillis());
+                stmt.setString(2, hash);
+                if (stmt.executeUpdate() > 0) {
+                    insertedHashes.add(hash);
+                    return hash;
+                }
+            }
+            // 已被其他伺服器清理，重新寫入物品內容
+            knownHashes.remove(hash);
+        }
+
+        String sql = "INSERT INTO " + tablePrefix + "item_blobs (hash, item_data, item_format, last_used) " +
+                "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE last_used = VALUES(last_used)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, hash);
+            stmt.setBytes(2, itemData);
+            stmt.setInt(3, ItemCodec.CURRENT_FORMAT);
+            stmt.setLong(4, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+        insertedHashes.add(hash);
+        return hash;
+    }
+
+    @Override
+    public Set<UUID> loadMailboxOwners() {
+        Set<UUID> owners = new HashSet<>();
+
+        String sql = "SELECT DISTINCT player_uuid FROM " + tablePrefix + "mails WHERE timestamp >= ?";
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, expiryCutoff());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    owners.add(UUID.fromString(rs.getString("player_uuid")));
+                }
             }
         } catch (SQLException e) {
-            plugin.getLogger().severe("加載玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+            plugin.getLogger().severe("加載信箱擁有者列表時出錯: " + e.getMessage());
         }
 
-        return mailItems;
+        return owners;
+    }
+
+    @Override
+    public MailStatistics loadMailStatistics() {
+        String sql = "SELECT COUNT(*) AS total, COUNT(DISTINCT player_uuid) AS players FROM " + tablePrefix +
+                "mails WHERE timestamp >= ?";
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, expiryCutoff());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new MailStatistics(rs.getLong("total"), rs.getInt("players"));
+                }
+                return new MailStatistics(0, 0);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("統計郵件數量時出錯: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Set<UUID> findOversizedMailboxes(int maxMails) {
+        String sql = "SELECT player_uuid FROM " + tablePrefix + "mails WHERE timestamp >= ? " +
+                "GROUP BY player_uuid HAVING COUNT(*) > ?";
+        Set<UUID> owners = new HashSet<>();
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, expiryCutoff());
+            stmt.setInt(2, maxMails);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    try {
+                        owners.add(UUID.fromString(rs.getString("player_uuid")));
+                    } catch (IllegalArgumentException e) {
+                        plugin.getLogger().warning("無效的玩家UUID: " + rs.getString("player_uuid"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("查詢超出郵件上限的信箱時出錯: " + e.getMessage());
+        }
+        return owners;
+    }
+
+    @Override
+    public long loadMailboxVersion(UUID playerUUID) {
+        try (Connection conn = dataSource.getConnection()) {
+            return readVersion(conn, playerUUID);
+        } catch (SQLException e) {
+            plugin.getLogger().severe("讀取信箱版本時出錯: " + playerUUID + " - " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private long readVersion(Connection conn, UUID playerUUID) throws SQLException {
+        String sql = "SELECT version FROM " + tablePrefix + "mailbox_versions WHERE player_uuid = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * 按版本保存整個信箱，不再刪除後重新插入所有郵件
+     * 版本與基準相同時只寫入與基準的差異，並在同一交易中以比較並交換推進版本；
+     * 版本已被其他寫入方推進時，讀取目前的郵件逐封合併後重試，不需要任何全域鎖
+     */
+    @Override
+    public MailboxSaveResult saveMailbox(UUID playerUUID, List<MailItem> base, long baseVersion, List<MailItem> mailItems) {
+        List<MailItem> stored = base;
+        List<MailItem> target = mailItems;
+        long expected = baseVersion;
+        boolean merged = false;
+
+        try (Connection conn = dataSource.getConnection()) {
+            for (int attempt = 0; attempt < MAX_SAVE_ATTEMPTS; attempt++) {
+                if (expected >= 0) {
+                    long written = writeIfVersion(conn, playerUUID, expected, MailboxMerge.diff(stored, target));
+                    if (written > 0) {
+                        return merged ? MailboxSaveResult.merged(written, target) : MailboxSaveResult.saved(written);
+                    }
+                }
+
+                // 版本不符或未知: 先讀版本再讀郵件，與本地修改逐封合併
+                long current = readVersion(conn, playerUUID);
+                List<MailItem> remote = readMailbox(conn, playerUUID);
+                target = MailboxMerge.merge(stored, target, remote);
+                stored = remote;
+                expected = current;
+                merged = true;
+            }
+            plugin.getLogger().warning("保存玩家信箱時持續與其他寫入方衝突: " + playerUUID);
+        } catch (SQLException e) {
+            plugin.getLogger().severe("保存玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+        }
+        return MailboxSaveResult.FAILED;
+    }
+
+    /**
+     * 版本仍為預期值時寫入變更並將版本加一
+     *
+     * @return 寫入後的版本，版本已變時返回0
+     */
+    private long writeIfVersion(Connection conn, UUID playerUUID, long expected, MailboxChangeSet changes) throws SQLException {
+        String insertSql = "INSERT IGNORE INTO " + tablePrefix + "mailbox_versions (player_uuid, version) VALUES (?, 1)";
+        String updateSql = "UPDATE " + tablePrefix + "mailbox_versions SET version = version + 1 " +
+                "WHERE player_uuid = ? AND version = ?";
+
+        Set<String> insertedHashes = new HashSet<>();
+        conn.setAutoCommit(false);
+        try {
+            int claimed;
+            if (expected == 0) {
+                try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+                    stmt.setString(1, playerUUID.toString());
+                    claimed = stmt.executeUpdate();
+                }
+            } else {
+                try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+                    stmt.setString(1, playerUUID.toString());
+                    stmt.setLong(2, expected);
+                    claimed = stmt.executeUpdate();
+                }
+            }
+            if (claimed != 1) {
+                conn.rollback();
+                return 0;
+            }
+
+            writeChanges(conn, playerUUID, changes, insertedHashes);
+            logChange(conn, playerUUID);
+            conn.commit();
+            knownHashes.addAll(insertedHashes);
+            return expected + 1;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * 物品內容與郵件需要在同一個交易中寫入，因此經由變更集寫入
+     */
+    @Override
+    public boolean appendMail(UUID playerUUID, MailItem mail) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getAppended().add(mail);
+        return applyChanges(playerUUID, changes) >= 0;
     }
 
     @Override
-    public void savePlayerMailbox(UUID playerUUID, List<MailItem> mailItems) {
-        // 刪除舊資料
-        String deleteSql = "DELETE FROM " + tablePrefix + "mails WHERE player_uuid = ?";
+    public boolean removeMail(UUID playerUUID, UUID mailId) {
+        String sql = "DELETE FROM " + tablePrefix + "mails WHERE player_uuid = ? AND mail_id = ?";
 
-        // 插入新資料
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            stmt.setString(2, mailId.toString());
+            stmt.executeUpdate();
+            recordChange(conn, playerUUID);
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().severe("刪除郵件時出錯: " + playerUUID + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 以條件 DELETE 領取郵件，由受影響的行數判斷郵件是否仍然存在，
+     * 多個伺服器同時領取同一封郵件時只有一個能刪除成功
+     */
+    @Override
+    public ClaimResult claimMail(UUID playerUUID, UUID mailId) {
+        Set<UUID> claimed = claimMails(playerUUID, Collections.singletonList(mailId));
+        if (claimed == null) {
+            return ClaimResult.FAILED;
+        }
+        return claimed.isEmpty() ? ClaimResult.NOT_FOUND : ClaimResult.CLAIMED;
+    }
+
+    /**
+     * 鎖定仍存在的郵件後以一條 DELETE ... IN 刪除，只有刪除到資料列的郵件才算領取成功。
+     * 版本與變更日誌必須和刪除一起提交，因此在同一交易中執行
+     */
+    @Override
+    public Set<UUID> claimMails(UUID playerUUID, Collection<UUID> mailIds) {
+        Set<UUID> claimed = new LinkedHashSet<>();
+        if (mailIds.isEmpty()) {
+            return claimed;
+        }
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                if (mailIds.size() == 1) {
+                    // 單封郵件由 DELETE 的影響列數即可判斷，不需要先鎖定
+                    UUID mailId = mailIds.iterator().next();
+                    if (deleteMails(conn, playerUUID, Collections.singletonList(mailId)) > 0) {
+                        claimed.add(mailId);
+                    }
+                } else {
+                    claimed.addAll(lockMails(conn, playerUUID, mailIds));
+                    if (!claimed.isEmpty()) {
+                        deleteMails(conn, playerUUID, claimed);
+                    }
+                }
+                if (!claimed.isEmpty()) {
+                    recordChange(conn, playerUUID);
+                }
+                conn.commit();
+                return claimed;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("領取郵件時出錯: " + playerUUID + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 鎖定玩家信箱中仍存在的指定郵件，交易提交前其他伺服器無法刪除它們
+     */
+    private Set<UUID> lockMails(Connection conn, UUID playerUUID, Collection<UUID> mailIds) throws SQLException {
+        String sql = "SELECT mail_id FROM " + tablePrefix + "mails WHERE player_uuid = ? AND mail_id IN (" +
+                String.join(", ", Collections.nCopies(mailIds.size(), "?")) + ") FOR UPDATE";
+
+        Set<UUID> found = new LinkedHashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setString(index++, playerUUID.toString());
+            for (UUID mailId : mailIds) {
+                stmt.setString(index++, mailId.toString());
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(UUID.fromString(rs.getString("mail_id")));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 以一條 DELETE 刪除玩家信箱中的指定郵件，返回刪除的行數
+     */
+    private int deleteMails(Connection conn, UUID playerUUID, Collection<UUID> mailIds) throws SQLException {
+        String sql = "DELETE FROM " + tablePrefix + "mails WHERE player_uuid = ? AND mail_id IN (" +
+                String.join(", ", Collections.nCopies(mailIds.size(), "?")) + ")";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setString(index++, playerUUID.toString());
+            for (UUID mailId : mailIds) {
+                stmt.setString(index++, mailId.toString());
+            }
+            return stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean markRead(UUID playerUUID, Collection<UUID> mailIds) {
+        if (mailIds.isEmpty()) {
+            return true;
+        }
+
+        String sql = "UPDATE " + tablePrefix + "mails SET is_read = TRUE WHERE player_uuid = ? AND mail_id = ?";
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (UUID mailId : mailIds) {
+                stmt.setString(1, playerUUID.toString());
+                stmt.setString(2, mailId.toString());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            recordChange(conn, playerUUID);
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().severe("標記郵件已讀時出錯: " + playerUUID + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 物品內容與郵件需要在同一個交易中寫入，因此經由變更集寫入
+     */
+    @Override
+    public boolean updateMail(UUID playerUUID, MailItem mail) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getUpdated().add(mail);
+        return applyChanges(playerUUID, changes) >= 0;
+    }
+
+    @Override
+    public long applyChanges(UUID playerUUID, MailboxChangeSet changes) {
+        if (changes.isEmpty()) {
+            return loadMailboxVersion(playerUUID);
+        }
+
+        Set<String> insertedHashes = new HashSet<>();
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                writeChanges(conn, playerUUID, changes, insertedHashes);
+                recordChange(conn, playerUUID);
+                long version = readVersion(conn, playerUUID);
+                conn.commit();
+                knownHashes.addAll(insertedHashes);
+                return version;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("批量寫入信箱變更時出錯: " + playerUUID + " - " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * 在呼叫方的交易中寫入變更集
+     */
+    private void writeChanges(Connection conn, UUID playerUUID, MailboxChangeSet changes,
+                              Set<String> insertedHashes) throws SQLException {
         String insertSql = "INSERT INTO " + tablePrefix +
-                "mails (player_uuid, item_data, timestamp, is_read) VALUES (?, ?, ?, ?)";
+                "mails (mail_id, player_uuid, item_hash, timestamp, is_read) VALUES (?, ?, ?, ?, ?)";
+        String updateSql = "UPDATE " + tablePrefix + "mails SET item_data = NULL, item_hash = ?, timestamp = ?, is_read = ? " +
+                "WHERE player_uuid = ? AND mail_id = ?";
+        String deleteSql = "DELETE FROM " + tablePrefix + "mails WHERE player_uuid = ? AND mail_id = ?";
+        String readSql = "UPDATE " + tablePrefix + "mails SET is_read = TRUE WHERE player_uuid = ? AND mail_id = ?";
+        String watermarkSql = "INSERT INTO " + tablePrefix + "broadcast_watermarks (player_uuid, broadcast_id) " +
+                "VALUES (?, ?) ON DUPLICATE KEY UPDATE broadcast_id = GREATEST(broadcast_id, VALUES(broadcast_id))";
+
+        if (!changes.getRemoved().isEmpty()) {
+            try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+                for (UUID mailId : changes.getRemoved()) {
+                    stmt.setString(1, playerUUID.toString());
+                    stmt.setString(2, mailId.toString());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        if (!changes.getUpdated().isEmpty()) {
+            try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+                for (MailItem mail : changes.getUpdated()) {
+                    String itemHash = storeItemBlob(conn, mail.getItem(), insertedHashes);
+                    if (itemHash != null) {
+                        stmt.setString(1, itemHash);
+                        stmt.setLong(2, mail.getTimestamp());
+                        stmt.setBoolean(3, mail.isRead());
+                        stmt.setString(4, playerUUID.toString());
+                        stmt.setString(5, mail.getId().toString());
+                        stmt.addBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        if (!changes.getRead().isEmpty()) {
+            try (PreparedStatement stmt = conn.prepareStatement(readSql)) {
+                for (UUID mailId : changes.getRead()) {
+                    stmt.setString(1, playerUUID.toString());
+                    stmt.setString(2, mailId.toString());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        if (!changes.getAppended().isEmpty()) {
+            try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+                for (MailItem mail : changes.getAppended()) {
+                    String itemHash = storeItemBlob(conn, mail.getItem(), insertedHashes);
+                    if (itemHash != null) {
+                        stmt.setString(1, mail.getId().toString());
+                        stmt.setString(2, playerUUID.toString());
+                        stmt.setString(3, itemHash);
+                        stmt.setLong(4, mail.getTimestamp());
+                        stmt.setBoolean(5, mail.isRead());
+                        stmt.addBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        // 廣播水位與物化的廣播郵件在同一交易中寫入
+        if (changes.getBroadcastWatermark() >= 0) {
+            try (PreparedStatement stmt = conn.prepareStatement(watermarkSql)) {
+                stmt.setString(1, playerUUID.toString());
+                stmt.setLong(2, changes.getBroadcastWatermark());
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    @Override
+    public int purgeUnusedItems() {
+        String sql = "DELETE FROM " + tablePrefix + "item_blobs WHERE last_used < ? AND NOT EXISTS " +
+                "(SELECT 1 FROM " + tablePrefix + "mails m WHERE m.item_hash = " + tablePrefix + "item_blobs.hash)";
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, System.currentTimeMillis() - blobGraceMillis);
+            int deleted = stmt.executeUpdate();
+            // 已刪除的雜湊下次寫入時需要重新保存
+            knownHashes.clear();
+            return deleted;
+        } catch (SQLException e) {
+            plugin.getLogger().severe("清理未使用的物品資料時出錯: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public void setMailExpiry(long expireAfterMillis) {
+        this.mailExpireMillis = expireAfterMillis;
+    }
+
+    /**
+     * 按時間範圍刪除一批過期郵件，使用 idx_timestamp 索引從最舊的郵件開始刪除
+     * 每次只刪除有限的行數，由呼叫方控制批次之間的間隔，避免長時間持有行鎖
+     */
+    @Override
+    public MailStatistics deleteExpiredMails(long cutoff, int limit) {
+        String selectSql = "SELECT mail_id, player_uuid FROM " + tablePrefix + "mails WHERE timestamp < ? " +
+                "ORDER BY timestamp LIMIT ? FOR UPDATE";
+        String deleteSql = "DELETE FROM " + tablePrefix + "mails WHERE mail_id = ?";
 
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
 
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
-                deleteStmt.setString(1, playerUUID.toString());
-                deleteStmt.executeUpdate();
-            }
-
-            if (mailItems != null && !mailItems.isEmpty()) {
-                try (PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
-                    for (MailItem mail : mailItems) {
-                        byte[] itemData = serializeItemStack(mail.getItem());
-                        if (itemData != null) {
-                            insertStmt.setString(1, playerUUID.toString());
-                            insertStmt.setBytes(2, itemData);
-                            insertStmt.setLong(3, mail.getTimestamp());
-                            insertStmt.setBoolean(4, mail.isRead());
-                            insertStmt.addBatch();
+            try {
+                // 先鎖定這一批郵件，得到每封郵件所屬的信箱，再逐封刪除並記錄這些信箱的修改
+                Map<String, String> expired = new LinkedHashMap<>();
+                try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+                    stmt.setLong(1, cutoff);
+                    stmt.setInt(2, limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            expired.put(rs.getString("mail_id"), rs.getString("player_uuid"));
                         }
                     }
-                    insertStmt.executeBatch();
                 }
+                if (expired.isEmpty()) {
+                    conn.commit();
+                    return new MailStatistics(0, 0);
+                }
+
+                try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+                    for (String mailId : expired.keySet()) {
+                        stmt.setString(1, mailId);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+
+                Set<String> owners = new LinkedHashSet<>(expired.values());
+                for (String owner : owners) {
+                    recordChange(conn, UUID.fromString(owner));
+                }
+                int emptied = owners.size() - countOwnersWithMail(conn, owners);
+                conn.commit();
+                return new MailStatistics(expired.size(), emptied);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("刪除過期郵件時出錯: " + e.getMessage());
+            return new MailStatistics(0, 0);
+        }
+    }
 
-            conn.commit();
+    /**
+     * 統計指定的信箱中仍有郵件的數量
+     */
+    private int countOwnersWithMail(Connection conn, Set<String> owners) throws SQLException {
+        String sql = "SELECT COUNT(DISTINCT player_uuid) FROM " + tablePrefix + "mails WHERE player_uuid IN (" +
+                String.join(", ", Collections.nCopies(owners.size(), "?")) + ")";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            for (String owner : owners) {
+                stmt.setString(index++, owner);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private long expiryCutoff() {
+        return mailExpireMillis > 0 ? System.currentTimeMillis() - mailExpireMillis : Long.MIN_VALUE;
+    }
+
+    @Override
+    public long saveBroadcast(ItemStack item, long timestamp) {
+        byte[] itemData = codec.encode(item);
+        if (itemData == null) {
+            return -1;
+        }
+
+        String sql = "INSERT INTO " + tablePrefix + "broadcasts (item_data, item_format, timestamp) VALUES (?, ?, ?)";
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setBytes(1, itemData);
+            stmt.setInt(2, ItemCodec.CURRENT_FORMAT);
+            stmt.setLong(3, timestamp);
+            stmt.executeUpdate();
+
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : -1;
+            }
         } catch (SQLException e) {
-            plugin.getLogger().severe("保存玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+            plugin.getLogger().severe("保存廣播郵件時出錯: " + e.getMessage());
+            return -1;
         }
     }
 
     @Override
-    public void saveAllMailboxes(Map<UUID, List<MailItem>> playerMailboxes) {
-        for (Map.Entry<UUID, List<MailItem>> entry : playerMailboxes.entrySet()) {
-            savePlayerMailbox(entry.getKey(), entry.getValue());
+    public List<BroadcastMail> loadBroadcasts() {
+        List<BroadcastMail> broadcasts = new ArrayList<>();
+
+        String sql = "SELECT id, item_data, item_format, timestamp FROM " + tablePrefix + "broadcasts ORDER BY id ASC";
+
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                ItemStack item = codec.decode(rs.getBytes("item_data"), rs.getInt("item_format"));
+                if (item != null) {
+                    broadcasts.add(new BroadcastMail(rs.getLong("id"), item, rs.getLong("timestamp")));
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("加載廣播郵件時出錯: " + e.getMessage());
         }
+
+        return broadcasts;
     }
 
-    private byte[] serializeItemStack(ItemStack item) {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
+    @Override
+    public long loadBroadcastWatermark(UUID playerUUID) {
+        String sql = "SELECT broadcast_id FROM " + tablePrefix + "broadcast_watermarks WHERE player_uuid = ?";
 
-            dataOutput.writeObject(item);
-            return outputStream.toByteArray();
-        } catch (Exception e) {
-            plugin.getLogger().warning("序列化物品時出錯: " + e.getMessage());
-            return null;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong("broadcast_id") : 0;
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("加載廣播水位時出錯: " + playerUUID + " - " + e.getMessage());
+            return -1;
         }
     }
 
-    private ItemStack deserializeItemStack(byte[] data) {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-             BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream)) {
+    /**
+     * 將指定資料表中舊格式的物品資料逐批轉換為目前格式，並記錄轉換前後的大小和編解碼耗時
+     * 只更新格式標記仍為舊格式的行，不會覆蓋轉換期間被重新寫入的資料
+     */
+    private void reencodeLegacyItems(String table, int batchSize) {
+        String selectSql = "SELECT id, item_data FROM " + tablePrefix + table +
+                " WHERE item_format = ? AND item_data IS NOT NULL AND id > ? ORDER BY id ASC LIMIT ?";
+        String updateSql = "UPDATE " + tablePrefix + table + " SET item_data = ?, item_format = ? " +
+                "WHERE id = ? AND item_format = ?";
 
-            return (ItemStack) dataInput.readObject();
-        } catch (Exception e) {
-            plugin.getLogger().warning("反序列化物品時出錯: " + e.getMessage());
-            return null;
+        long rows = 0;
+        long failed = 0;
+        long legacyBytes = 0;
+        long currentBytes = 0;
+        long legacyEncodeNanos = 0;
+        long legacyDecodeNanos = 0;
+        long currentEncodeNanos = 0;
+        long currentDecodeNanos = 0;
+        long lastId = 0;
+        long start = System.currentTimeMillis();
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement update = conn.prepareStatement(updateSql)) {
+
+            while (dataSource != null && !dataSource.isClosed()) {
+                select.setInt(1, ItemCodec.FORMAT_JAVA_SERIALIZATION);
+                select.setLong(2, lastId);
+                select.setInt(3, batchSize);
+
+                int batchRows = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        batchRows++;
+                        lastId = rs.getLong("id");
+                        byte[] legacyData = rs.getBytes("item_data");
+
+                        long t0 = System.nanoTime();
+                        ItemStack item = codec.decode(legacyData, ItemCodec.FORMAT_JAVA_SERIALIZATION);
+                        long t1 = System.nanoTime();
+                        if (item == null) {
+                            failed++;
+                            continue;
+                        }
+                        byte[] currentData = codec.encode(item, ItemCodec.CURRENT_FORMAT);
+                        long t2 = System.nanoTime();
+                        if (currentData == null) {
+                            failed++;
+                            continue;
+                        }
+                        // 僅用於對比耗時，結果不會寫入
+                        codec.encode(item, ItemCodec.FORMAT_JAVA_SERIALIZATION);
+                        long t3 = System.nanoTime();
+                        codec.decode(currentData, ItemCodec.CURRENT_FORMAT);
+                        long t4 = System.nanoTime();
+
+                        legacyDecodeNanos += t1 - t0;
+                        currentEncodeNanos += t2 - t1;
+                        legacyEncodeNanos += t3 - t2;
+                        currentDecodeNanos += t4 - t3;
+                        legacyBytes += legacyData.length;
+                        currentBytes += currentData.length;
+                        rows++;
+
+                        update.setBytes(1, currentData);
+                        update.setInt(2, ItemCodec.CURRENT_FORMAT);
+                        update.setLong(3, lastId);
+                        update.setInt(4, ItemCodec.FORMAT_JAVA_SERIALIZATION);
+                        update.addBatch();
+                    }
+                }
+
+                if (batchRows == 0) {
+                    break;
+                }
+                update.executeBatch();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("轉換物品資料格式時出錯: " + table + " - " + e.getMessage());
+        }
+
+        if (rows > 0 || failed > 0) {
+            plugin.getLogger().info(String.format(
+                    "物品格式轉換完成 (%s): %d 行, 失敗 %d 行, 耗時 %dms | 大小 %d -> %d bytes (%.1f%%) | " +
+                            "平均編碼 %.1f -> %.1f µs, 平均解碼 %.1f -> %.1f µs",
+                    table, rows, failed, System.currentTimeMillis() - start,
+                    legacyBytes, currentBytes, legacyBytes == 0 ? 0.0 : currentBytes * 100.0 / legacyBytes,
+                    average(legacyEncodeNanos, rows), average(currentEncodeNanos, rows),
+                    average(legacyDecodeNanos, rows), average(currentDecodeNanos, rows)));
+        }
+    }
+
+    private static double average(long nanos, long count) {
+        return count == 0 ? 0.0 : nanos / 1000.0 / count;
+    }
+
+    /**
+     * 記錄玩家的信箱已被修改：版本加一並寫入變更日誌，與修改使用同一個連線 (交易中時一併提交)
+     */
+    private void recordChange(Connection conn, UUID playerUUID) throws SQLException {
+        String sql = "INSERT INTO " + tablePrefix + "mailbox_versions (player_uuid, version) VALUES (?, 1) " +
+                "ON DUPLICATE KEY UPDATE version = version + 1";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            stmt.executeUpdate();
+        }
+        logChange(conn, playerUUID);
+    }
+
+    /**
+     * 在變更日誌中記錄玩家的信箱已被修改，與修改使用同一個連線 (交易中時一併提交)
+     */
+    private void logChange(Connection conn, UUID playerUUID) throws SQLException {
+        if (!changelogEnabled) {
+            return;
+        }
+        String sql = "INSERT INTO " + tablePrefix + "changelog (player_uuid, server_id) VALUES (?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            stmt.setString(2, serverId);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean supportsRemoteChanges() {
+        return changelogEnabled;
+    }
+
+    /**
+     * 讀取其他伺服器在上次輪詢後修改過的信箱
+     * 自增序號在交易提交前就已分配，較小的序號可能晚於較大的序號出現，因此游標只推進到
+     * 已存在超過兩秒的連續記錄，之後的記錄雖然已處理，但仍會在下次輪詢時讀到並按序號跳過
+     */
+    @Override
+    public Set<UUID> pollRemoteChanges() {
+        Set<UUID> owners = new HashSet<>();
+        if (!changelogEnabled) {
+            return owners;
+        }
+
+        try (Connection conn = dataSource.getConnection()) {
+            if (changelogCursor < 0) {
+                // 第一次輪詢，從目前最新的記錄開始
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM " + tablePrefix + "changelog")) {
+                    changelogCursor = rs.next() ? rs.getLong(1) : 0;
+                }
+                return owners;
+            }
+
+            String sql = "SELECT seq, player_uuid, server_id, created_at <= NOW(3) - INTERVAL 2 SECOND AS settled FROM " +
+                    tablePrefix + "changelog WHERE seq > ? ORDER BY seq LIMIT ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, changelogCursor);
+                stmt.setInt(2, changelogBatchSize);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    boolean contiguous = true;
+                    while (rs.next()) {
+                        long seq = rs.getLong("seq");
+                        if (seenChanges.add(seq) && !serverId.equals(rs.getString("server_id"))) {
+                            try {
+                                owners.add(UUID.fromString(rs.getString("player_uuid")));
+                            } catch (IllegalArgumentException e) {
+                                plugin.getLogger().warning("無效的玩家UUID: " + rs.getString("player_uuid"));
+                            }
+                        }
+                        if (contiguous && rs.getBoolean("settled")) {
+                            changelogCursor = seq;
+                        } else {
+                            contiguous = false;
+                        }
+                    }
+                }
+            }
+            seenChanges.removeIf(seq -> seq <= changelogCursor);
+
+            // 每分鐘清理一次超過保留時間的記錄
+            long now = System.currentTimeMillis();
+            if (now - lastChangelogPrune >= 60_000L) {
+                lastChangelogPrune = now;
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + tablePrefix +
+                        "changelog WHERE created_at < NOW(3) - INTERVAL ? MINUTE LIMIT 5000")) {
+                    stmt.setLong(1, changelogRetentionMinutes);
+                    stmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().warning("讀取信箱變更日誌時出錯: " + e.getMessage());
         }
+        return owners;
     }
 
     @Override
@@ -0,0 +1,969 @@
+package me.ninepin.mailBoxPlugin.database;
+
+import me.ninepin.mailBoxPlugin.enums.ClaimResult;
+import me.ninepin.mailBoxPlugin.manager.DataManager;
+import me.ninepin.mailBoxPlugin.manager.IDataManager;
+import me.ninepin.mailBoxPlugin.model.BroadcastMail;
+import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailStatistics;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import me.ninepin.mailBoxPlugin.model.MailboxMerge;
+import me.ninepin.mailBoxPlugin.model.MailboxSaveResult;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 段日誌存儲
+ * 每次信箱變更以一條記錄追加到當前段文件，不再重寫整個信箱文件
+ * 記憶體中的索引保存每個玩家有效記錄的位置，讀取已封存的段時使用記憶體映射
+ * 背景壓縮把已封存的段合併為每個玩家一條快照記錄
+ */
+public class SegmentLogDataManager implements IDataManager {
+
+    private static final int MAGIC = 0x4D424C47; // "MBLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final JavaPlugin plugin;
+    private final ItemCodec codec;
+    private final File logFolder;
+    private final long segmentSize;
+    private final boolean fsync;
+    private final long compactionIntervalMinutes;
+    private volatile long mailExpireMillis = -1;
+
+    // 保護段列表和索引：讀取記錄時持有讀鎖，壓縮替換段時持有寫鎖
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<UUID, List<Pointer>> index = new HashMap<>();
+    private final List<Pointer> broadcastPointers = new ArrayList<>();
+
+    private final Object appendLock = new Object();
+    // 每個信箱的版本，每追加一條該玩家的記錄加一；日誌只由本伺服器寫入，版本不需要保存
+    private final Map<UUID, Long> versions = new HashMap<>();
+    private final Object compactLock = new Object();
+    private volatile Segment active;
+    private long lastBroadcastId;
+
+    private ScheduledExecutorService compactor;
+
+    public SegmentLogDataManager(JavaPlugin plugin) {
+        this.plugin = plugin;
+        this.codec = new ItemCodec(plugin.getLogger());
+        FileConfiguration config = plugin.getConfig();
+        this.logFolder = new File(plugin.getDataFolder(), config.getString("file.log.folder-name", "mailbox-log"));
+        this.segmentSize = Math.max(1, config.getLong("file.log.segment-size-mb", 64)) * 1024L * 1024L;
+        this.fsync = config.getBoolean("file.log.fsync", true);
+        this.compactionIntervalMinutes = Math.max(1, config.getLong("file.log.compaction-interval-minutes", 10));
+    }
+
+    @Override
+    public void initialize() {
+        if (!logFolder.exists()) {
+            logFolder.mkdirs();
+        }
+
+        try {
+            recover();
+            if (segments.isEmpty()) {
+                active = createSegment(1, 1);
+                segments.put(active.id, active);
+                importLegacyFiles();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("無法開啟信箱日誌: " + e.getMessage());
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MailboxPlugin-Compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                compactionIntervalMinutes, compactionIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 讀取所有段文件並重建索引
+     * 壓縮產生的段會覆蓋它所合併的舊段，最後一個段中寫到一半的記錄會被截斷
+     */
+    private void recover() throws IOException {
+        File[] tmpFiles = logFolder.listFiles((dir, name) -> name.endsWith(".tmp"));
+        if (tmpFiles != null) {
+            for (File file : tmpFiles) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+
+        TreeMap<Integer, Segment> found = new TreeMap<>();
+        File[] files = logFolder.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    Segment segment = openSegment(id, file);
+                    if (segment != null) {
+                        found.put(id, segment);
+                    }
+                } catch (NumberFormatException e) {
+                    plugin.getLogger().warning("無效的日誌段文件名: " + name);
+                }
+            }
+        }
+
+        // 壓縮段在刪除舊段前中斷時，舊段已被壓縮段取代
+        int coveredFrom = Integer.MAX_VALUE;
+        for (Segment segment : new ArrayList<>(found.descendingMap().values())) {
+            if (segment.id >= coveredFrom) {
+                found.remove(segment.id);
+                segment.close();
+                Files.deleteIfExists(segment.file.toPath());
+                continue;
+            }
+            if (segment.baseId < segment.id) {
+                coveredFrom = segment.baseId;
+            }
+        }
+
+        for (Segment segment : found.values()) {
+            scan(segment, segment.id == found.lastKey());
+            segments.put(segment.id, segment);
+        }
+
+        if (!found.isEmpty()) {
+            Segment last = found.lastEntry().getValue();
+            if (last.baseId == last.id && last.size < segmentSize) {
+                active = last;
+            } else {
+                active = createSegment(last.id + 1, last.id + 1);
+                segments.put(active.id, active);
+            }
+            plugin.getLogger().info("已從 " + found.size() + " 個日誌段載入 " + index.size() + " 個信箱的索引");
+        }
+    }
+
+    private void scan(Segment segment, boolean last) throws IOException {
+        MappedByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        long position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+
+        while (position + RECORD_HEADER_SIZE <= segment.size) {
+            int length = buffer.getInt((int) position);
+            int checksum = buffer.getInt((int) position + 4);
+            long payloadOffset = position + RECORD_HEADER_SIZE;
+            if (length <= 0 || payloadOffset + length > segment.size) {
+                break;
+            }
+
+            ByteBuffer payload = buffer.duplicate();
+            payload.position((int) payloadOffset).limit((int) payloadOffset + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            Pointer pointer = new Pointer(segment, payloadOffset, length);
+            UUID player = LogRecord.peekPlayer(payload);
+            if (player != null) {
+                index.computeIfAbsent(player, uuid -> new ArrayList<>()).add(pointer);
+            } else {
+                broadcastPointers.add(pointer);
+                lastBroadcastId = Math.max(lastBroadcastId, LogRecord.decode(payload).broadcastId);
+            }
+            position = payloadOffset + length;
+        }
+
+        if (position < segment.size) {
+            if (last) {
+                plugin.getLogger().warning("日誌段 " + segment.file.getName() + " 末尾有不完整的記錄，已截斷 " +
+                        (segment.size - position) + " 位元組");
+                segment.channel.truncate(position);
+                segment.size = position;
+            } else {
+                plugin.getLogger().severe("日誌段 " + segment.file.getName() + " 在位置 " + position + " 之後已損壞，其餘記錄被忽略");
+            }
+        }
+    }
+
+    /**
+     * 從舊版本的 YAML 信箱文件匯入資料，只在日誌為空時執行一次
+     */
+    private void importLegacyFiles() {
+        File legacyFolder = new File(plugin.getDataFolder(), "mailboxes");
+        File[] files = legacyFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+        if (files == null || files.length == 0) {
+            return;
+        }
+
+        plugin.getLogger().info("正在從 YAML 信箱文件匯入 " + files.length + " 個信箱...");
+        DataManager legacy = new DataManager(plugin);
+        int imported = 0;
+        for (UUID owner : legacy.loadMailboxOwners()) {
+            LogRecord record = LogRecord.mailbox(owner);
+            record.reset = true;
+            record.watermark = Math.max(0, legacy.loadBroadcastWatermark(owner));
+            for (MailItem mail : legacy.loadPlayerMailbox(owner)) {
+                LogRecord.RawMail raw = encode(mail);
+                if (raw != null) {
+                    record.appended.add(raw);
+                }
+            }
+            if (append(record)) {
+                imported++;
+            }
+        }
+        for (BroadcastMail broadcast : legacy.loadBroadcasts()) {
+            // 匯入的廣播保留原本的 ID，之後新發送的廣播必須排在其後 (包括未能匯入的 ID)，否則水位已到的玩家會跳過它們
+            lastBroadcastId = Math.max(lastBroadcastId, broadcast.getId());
+            byte[] data = codec.encode(broadcast.getItem());
+            if (data != null) {
+                append(LogRecord.broadcast(broadcast.getId(), new LogRecord.RawMail(
+                        new UUID(0, broadcast.getId()), broadcast.getTimestamp(), false, ItemCodec.CURRENT_FORMAT, data)));
+            }
+        }
+        plugin.getLogger().info("已匯入 " + imported + " 個信箱，原 YAML 文件保留在 " + legacyFolder.getName() + " 資料夾中");
+    }
+
+    /**
+     * 追加一條記錄並更新索引
+     *
+     * @param record 記錄
+     * @return 是否寫入成功
+     */
+    private boolean append(LogRecord record) {
+        synchronized (appendLock) {
+            try {
+                byte[] payload = record.encode();
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+
+                ByteBuffer frame = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+                frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+                if (active.size > HEADER_SIZE && active.size + frame.remaining() > segmentSize) {
+                    rollSegment();
+                }
+
+                long offset = active.size;
+                while (frame.hasRemaining()) {
+                    offset += active.channel.write(frame, offset);
+                }
+                if (fsync) {
+                    active.channel.force(false);
+                }
+
+                Pointer pointer = new Pointer(active, active.size + RECORD_HEADER_SIZE, payload.length);
+                active.size = offset;
+                if (record.player != null) {
+                    versions.merge(record.player, 1L, Long::sum);
+                }
+
+                lock.writeLock().lock();
+                try {
+                    if (record.player != null) {
+                        index.computeIfAbsent(record.player, uuid -> new ArrayList<>()).add(pointer);
+                    } else {
+                        broadcastPointers.add(pointer);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                return true;
+            } catch (IOException e) {
+                plugin.getLogger().severe("寫入信箱日誌時出錯: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 封存當前段並開始寫入新的段
+     */
+    private void rollSegment() throws IOException {
+        active.channel.force(true);
+        Segment next = createSegment(active.id + 1, active.id + 1);
+        lock.writeLock().lock();
+        try {
+            segments.put(next.id, next);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        active = next;
+    }
+
+    private Segment createSegment(int id, int baseId) throws IOException {
+        return createSegment(id, baseId, new File(logFolder, id + SEGMENT_SUFFIX));
+    }
+
+    private Segment createSegment(int id, int baseId, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(baseId).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        return new Segment(id, baseId, file, channel, HEADER_SIZE);
+    }
+
+    private Segment openSegment(int id, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (size >= HEADER_SIZE) {
+            channel.read(header, 0);
+            header.flip();
+        }
+        if (size < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            channel.close();
+            plugin.getLogger().warning("忽略無效的日誌段文件: " + file.getName());
+            Files.move(file.toPath(), new File(logFolder, file.getName() + ".corrupt").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        }
+        return new Segment(id, header.getInt(), file, channel, size);
+    }
+
+    /**
+     * 讀取並依次套用玩家的所有記錄
+     *
+     * @return 信箱狀態，沒有任何記錄時返回null
+     */
+    private LogRecord.MailboxState loadState(UUID playerUUID) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<Pointer> pointers = index.get(playerUUID);
+            if (pointers == null) {
+                return null;
+            }
+            return replay(pointers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private LogRecord.MailboxState replay(List<Pointer> pointers) throws IOException {
+        LogRecord.MailboxState state = new LogRecord.MailboxState();
+        for (Pointer pointer : pointers) {
+            state.apply(LogRecord.decode(pointer.read()));
+        }
+        return state;
+    }
+
+    private LogRecord.RawMail encode(MailItem mail) {
+        byte[] data = codec.encode(mail.getItem());
+        if (data == null) {
+            return null;
+        }
+        return new LogRecord.RawMail(mail.getId(), mail.getTimestamp(), mail.isRead(), ItemCodec.CURRENT_FORMAT, data);
+    }
+
+    private List<MailItem> decode(LogRecord.MailboxState state) {
+        List<MailItem> mailItems = new ArrayList<>(state.mails.size());
+        long cutoff = expiryCutoff();
+        for (LogRecord.RawMail raw : state.mails.values()) {
+            // 過期的郵件不解碼
+            if (raw.timestamp < cutoff) {
+                continue;
+            }
+            ItemStack item = codec.decode(raw.data, raw.format);
+            if (item != null) {
+                mailItems.add(new MailItem(raw.id, item, raw.timestamp, raw.read));
+            }
+        }
+        return mailItems;
+    }
+
+    @Override
+    public Map<UUID, List<MailItem>> loadAllMailboxes() {
+        Map<UUID, List<MailItem>> playerMailboxes = new HashMap<>();
+        for (UUID owner : loadMailboxOwners()) {
+            try {
+                List<MailItem> mailItems = loadPlayerMailbox(owner);
+                if (!mailItems.isEmpty()) {
+                    playerMailboxes.put(owner, mailItems);
+                }
+            } catch (IllegalStateException e) {
+                // 已記錄錯誤，其他玩家的信箱照常載入
+            }
+        }
+        return playerMailboxes;
+    }
+
+    /**
+     * 讀取失敗時拋出異常，不返回空列表，避免把空信箱放入緩存後再保存覆蓋日誌中的郵件
+     */
+    @Override
+    public List<MailItem> loadPlayerMailbox(UUID playerUUID) {
+        try {
+            LogRecord.MailboxState state = loadState(playerUUID);
+            return state == null ? new ArrayList<>() : decode(state);
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().severe("加載玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+            throw new IllegalStateException("無法讀取玩家信箱: " + playerUUID, e);
+        }
+    }
+
+    /**
+     * 獲取日誌中有記錄的所有玩家，信箱已清空的玩家會在下次壓縮後移除
+     */
+    @Override
+    public Set<UUID> loadMailboxOwners() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(index.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public MailStatistics loadMailStatistics() {
+        long totalMails = 0;
+        int playersWithMail = 0;
+        long cutoff = expiryCutoff();
+        try {
+            for (UUID owner : loadMailboxOwners()) {
+                LogRecord.MailboxState state = loadState(owner);
+                if (state != null) {
+                    state.expire(cutoff);
+                }
+                if (state != null && !state.mails.isEmpty()) {
+                    totalMails += state.mails.size();
+                    playersWithMail++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().severe("統計郵件數量時出錯: " + e.getMessage());
+            return null;
+        }
+        return new MailStatistics(totalMails, playersWithMail);
+    }
+
+    /**
+     * 只讀取信箱狀態計算數量，不解碼物品
+     */
+    @Override
+    public Set<UUID> findOversizedMailboxes(int maxMails) {
+        Set<UUID> owners = new HashSet<>();
+        long cutoff = expiryCutoff();
+        for (UUID owner : loadMailboxOwners()) {
+            try {
+                LogRecord.MailboxState state = loadState(owner);
+                if (state == null || state.mails.size() <= maxMails) {
+                    continue;
+                }
+                state.expire(cutoff);
+                if (state.mails.size() > maxMails) {
+                    owners.add(owner);
+                }
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().severe("讀取玩家信箱資料時出錯: " + owner + " - " + e.getMessage());
+            }
+        }
+        return owners;
+    }
+
+    @Override
+    public long loadMailboxVersion(UUID playerUUID) {
+        synchronized (appendLock) {
+            return versions.getOrDefault(playerUUID, 0L);
+        }
+    }
+
+    /**
+     * 版本未變時只追加與基準的差異；版本已變時先與日誌中的目前內容逐封合併，再追加差異
+     */
+    @Override
+    public MailboxSaveResult saveMailbox(UUID playerUUID, List<MailItem> base, long baseVersion, List<MailItem> mailItems) {
+        synchronized (appendLock) {
+            if (versions.getOrDefault(playerUUID, 0L) == baseVersion) {
+                long written = applyChanges(playerUUID, MailboxMerge.diff(base, mailItems));
+                return written < 0 ? MailboxSaveResult.FAILED : MailboxSaveResult.saved(written);
+            }
+
+            List<MailItem> stored;
+            try {
+                LogRecord.MailboxState state = loadState(playerUUID);
+                stored = state == null ? new ArrayList<>() : decode(state);
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().severe("讀取玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+                return MailboxSaveResult.FAILED;
+            }
+            List<MailItem> merged = MailboxMerge.merge(base, mailItems, stored);
+            long written = applyChanges(playerUUID, MailboxMerge.diff(stored, merged));
+            return written < 0 ? MailboxSaveResult.FAILED : MailboxSaveResult.merged(written, merged);
+        }
+    }
+
+    @Override
+    public boolean appendMail(UUID playerUUID, MailItem mail) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getAppended().add(mail);
+        return applyChanges(playerUUID, changes) >= 0;
+    }
+
+    @Override
+    public boolean removeMail(UUID playerUUID, UUID mailId) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getRemoved().add(mailId);
+        return applyChanges(playerUUID, changes) >= 0;
+    }
+
+    @Override
+    public ClaimResult claimMail(UUID playerUUID, UUID mailId) {
+        Set<UUID> claimed = claimMails(playerUUID, Collections.singletonList(mailId));
+        if (claimed == null) {
+            return ClaimResult.FAILED;
+        }
+        return claimed.isEmpty() ? ClaimResult.NOT_FOUND : ClaimResult.CLAIMED;
+    }
+
+    /**
+     * 在追加鎖內確認郵件仍在日誌中，再把仍存在的郵件寫成一條刪除記錄，同一封郵件只能被領取一次
+     */
+    @Override
+    public Set<UUID> claimMails(UUID playerUUID, Collection<UUID> mailIds) {
+        synchronized (appendLock) {
+            Set<UUID> claimed = new LinkedHashSet<>();
+            try {
+                LogRecord.MailboxState state = loadState(playerUUID);
+                if (state != null) {
+                    for (UUID mailId : mailIds) {
+                        if (state.mails.containsKey(mailId)) {
+                            claimed.add(mailId);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().severe("讀取玩家信箱資料時出錯: " + playerUUID + " - " + e.getMessage());
+                return null;
+            }
+            if (claimed.isEmpty()) {
+                return claimed;
+            }
+
+            LogRecord record = LogRecord.mailbox(playerUUID);
+            record.removed.addAll(claimed);
+            return append(record) ? claimed : null;
+        }
+    }
+
+    @Override
+    public boolean markRead(UUID playerUUID, Collection<UUID> mailIds) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getRead().addAll(mailIds);
+        return applyChanges(playerUUID, changes) >= 0;
+    }
+
+    @Override
+    public boolean updateMail(UUID playerUUID, MailItem mail) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getUpdated().add(mail);
+        return applyChanges(playerUUID, changes) >= 0;
+    }
+
+    /**
+     * 整個變更集寫成一條記錄，校驗失敗的記錄在恢復時整條丟棄，因此變更集是原子的
+     */
+    @Override
+    public long applyChanges(UUID playerUUID, MailboxChangeSet changes) {
+        LogRecord record = changes.isEmpty() ? null : changeRecord(playerUUID, changes);
+        synchronized (appendLock) {
+            if (record != null && !append(record)) {
+                return -1;
+            }
+            return versions.getOrDefault(playerUUID, 0L);
+        }
+    }
+
+    private LogRecord changeRecord(UUID playerUUID, MailboxChangeSet changes) {
+        LogRecord record = LogRecord.mailbox(playerUUID);
+        record.watermark = changes.getBroadcastWatermark();
+        record.removed.addAll(changes.getRemoved());
+        record.read.addAll(changes.getRead());
+        for (MailItem mail : changes.getUpdated()) {
+            LogRecord.RawMail raw = encode(mail);
+            if (raw != null) {
+                record.updated.add(raw);
+            }
+        }
+        for (MailItem mail : changes.getAppended()) {
+            LogRecord.RawMail raw = encode(mail);
+            if (raw != null) {
+                record.appended.add(raw);
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public int purgeUnusedItems() {
+        return 0;
+    }
+
+    /**
+     * 文件存儲只供單個伺服器使用，沒有變更日誌
+     */
+    @Override
+    public boolean supportsRemoteChanges() {
+        return false;
+    }
+
+    @Override
+    public Set<UUID> pollRemoteChanges() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void setMailExpiry(long expireAfterMillis) {
+        this.mailExpireMillis = expireAfterMillis;
+    }
+
+    /**
+     * 段日誌不單獨刪除過期郵件，讀取時跳過，壓縮時從快照記錄中丟棄
+     */
+    @Override
+    public MailStatistics deleteExpiredMails(long cutoff, int limit) {
+        return new MailStatistics(0, 0);
+    }
+
+    private long expiryCutoff() {
+        return mailExpireMillis > 0 ? System.currentTimeMillis() - mailExpireMillis : Long.MIN_VALUE;
+    }
+
+    @Override
+    public long saveBroadcast(ItemStack item, long timestamp) {
+        byte[] data = codec.encode(item);
+        if (data == null) {
+            return -1;
+        }
+
+        synchronized (appendLock) {
+            long id = lastBroadcastId + 1;
+            LogRecord.RawMail raw = new LogRecord.RawMail(new UUID(0, id), timestamp, false, ItemCodec.CURRENT_FORMAT, data);
+            if (!append(LogRecord.broadcast(id, raw))) {
+                return -1;
+            }
+            lastBroadcastId = id;
+            return id;
+        }
+    }
+
+    @Override
+    public List<BroadcastMail> loadBroadcasts() {
+        List<BroadcastMail> broadcasts = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Pointer pointer : broadcastPointers) {
+                LogRecord record = LogRecord.decode(pointer.read());
+                ItemStack item = codec.decode(record.broadcast.data, record.broadcast.format);
+                if (item != null) {
+                    broadcasts.add(new BroadcastMail(record.broadcastId, item, record.broadcast.timestamp));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().severe("加載廣播郵件時出錯: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+        broadcasts.sort(Comparator.comparingLong(BroadcastMail::getId));
+        return broadcasts;
+    }
+
+    @Override
+    public long loadBroadcastWatermark(UUID playerUUID) {
+        try {
+            LogRecord.MailboxState state = loadState(playerUUID);
+            return state == null ? 0 : state.watermark;
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().severe("加載廣播水位時出錯: " + playerUUID + " - " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * 已封存的段中過期記錄較多時執行壓縮
+     */
+    private void compactIfNeeded() {
+        try {
+            int sealedSegments;
+            int sealedRecords = 0;
+            int sealedPlayers = 0;
+            lock.readLock().lock();
+            try {
+                sealedSegments = segments.headMap(active.id).size();
+                for (List<Pointer> pointers : index.values()) {
+                    int count = 0;
+                    for (Pointer pointer : pointers) {
+                        if (pointer.segment.id < active.id) {
+                            count++;
+                        }
+                    }
+                    sealedRecords += count;
+                    sealedPlayers += count > 0 ? 1 : 0;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (sealedSegments >= 2 || (sealedSegments == 1 && sealedRecords > sealedPlayers * 2)) {
+                compact();
+            }
+        } catch (Exception e) {
+            plugin.getLogger().severe("壓縮信箱日誌時出錯: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把所有已封存的段合併為一個段，每個玩家只保留一條快照記錄
+     * 新段沿用被合併的最後一個段的編號並記錄合併範圍，寫入完成後以原子改名替換
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            long start = System.currentTimeMillis();
+            int fromId;
+            int toId;
+            Map<UUID, List<Pointer>> sealed = new HashMap<>();
+            List<Pointer> sealedBroadcasts = new ArrayList<>();
+            long sealedBytes = 0;
+
+            lock.readLock().lock();
+            try {
+                SortedMap<Integer, Segment> candidates = segments.headMap(active.id);
+                if (candidates.isEmpty()) {
+                    return;
+                }
+                fromId = candidates.firstKey();
+                toId = candidates.lastKey();
+                for (Segment segment : candidates.values()) {
+                    sealedBytes += segment.size;
+                }
+                for (Map.Entry<UUID, List<Pointer>> entry : index.entrySet()) {
+                    List<Pointer> prefix = new ArrayList<>();
+                    for (Pointer pointer : entry.getValue()) {
+                        if (pointer.segment.id > toId) {
+                            break;
+                        }
+                        prefix.add(pointer);
+                    }
+                    if (!prefix.isEmpty()) {
+                        sealed.put(entry.getKey(), prefix);
+                    }
+                }
+                for (Pointer pointer : broadcastPointers) {
+                    if (pointer.segment.id <= toId) {
+                        sealedBroadcasts.add(pointer);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // 已封存的段不會再被修改，可以在不持有鎖的情況下讀取
+            long cutoff = expiryCutoff();
+            File tmpFile = new File(logFolder, toId + SEGMENT_SUFFIX + ".tmp");
+            Segment compacted = createSegment(toId, fromId, tmpFile);
+            Map<UUID, Pointer> replacements = new HashMap<>();
+            List<Pointer> compactedBroadcasts = new ArrayList<>();
+            try {
+                for (Pointer pointer : sealedBroadcasts) {
+                    compactedBroadcasts.add(writeRaw(compacted, pointer.read()));
+                }
+                for (Map.Entry<UUID, List<Pointer>> entry : sealed.entrySet()) {
+                    LogRecord.MailboxState state = replay(entry.getValue());
+                    // 過期的郵件在壓縮時丟棄，之後的記錄按ID修改，找不到的郵件會被忽略
+                    state.expire(cutoff);
+                    // 清空且沒有廣播水位的信箱不需要保留
+                    if (state.mails.isEmpty() && state.watermark == 0) {
+                        continue;
+                    }
+                    replacements.put(entry.getKey(),
+                            writeRaw(compacted, ByteBuffer.wrap(state.toRecord(entry.getKey()).encode())));
+                }
+                compacted.channel.force(true);
+            } catch (IOException | RuntimeException e) {
+                compacted.close();
+                Files.deleteIfExists(tmpFile.toPath());
+                throw e;
+            }
+
+            File target = new File(logFolder, toId + SEGMENT_SUFFIX);
+            Files.move(tmpFile.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            compacted.file = target;
+
+            List<Segment> obsolete = new ArrayList<>();
+            lock.writeLock().lock();
+            try {
+                for (Map.Entry<UUID, List<Pointer>> entry : sealed.entrySet()) {
+                    List<Pointer> pointers = index.get(entry.getKey());
+                    pointers.subList(0, entry.getValue().size()).clear();
+                    Pointer replacement = replacements.get(entry.getKey());
+                    if (replacement != null) {
+                        pointers.add(0, replacement);
+                    }
+                    if (pointers.isEmpty()) {
+                        index.remove(entry.getKey());
+                    }
+                }
+                broadcastPointers.removeAll(sealedBroadcasts);
+                broadcastPointers.addAll(0, compactedBroadcasts);
+
+                SortedMap<Integer, Segment> replaced = segments.subMap(fromId, toId + 1);
+                obsolete.addAll(replaced.values());
+                replaced.clear();
+                segments.put(compacted.id, compacted);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            for (Segment segment : obsolete) {
+                segment.close();
+                if (segment.id != toId) {
+                    Files.deleteIfExists(segment.file.toPath());
+                }
+            }
+
+            plugin.getLogger().info("信箱日誌壓縮完成: 合併 " + obsolete.size() + " 個段, " +
+                    sealedBytes / 1024 + "KB -> " + compacted.size / 1024 + "KB, 耗時 " +
+                    (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    private Pointer writeRaw(Segment segment, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer frame = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        frame.putInt(length).putInt((int) crc.getValue()).put(payload).flip();
+        long offset = segment.size;
+        while (frame.hasRemaining()) {
+            offset += segment.channel.write(frame, offset);
+        }
+        Pointer pointer = new Pointer(segment, segment.size + RECORD_HEADER_SIZE, length);
+        segment.size = offset;
+        return pointer;
+    }
+
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        synchronized (compactLock) {
+            synchronized (appendLock) {
+                lock.writeLock().lock();
+                try {
+                    if (active != null) {
+                        active.channel.force(true);
+                    }
+                } catch (IOException e) {
+                    plugin.getLogger().severe("關閉信箱日誌時出錯: " + e.getMessage());
+                } finally {
+                    for (Segment segment : segments.values()) {
+                        segment.close();
+                    }
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 日誌段文件
+     */
+    private class Segment {
+        private final int id;
+        private final int baseId;
+        private final FileChannel channel;
+        private File file;
+        private volatile long size;
+        private MappedByteBuffer mapped;
+
+        private Segment(int id, int baseId, File file, FileChannel channel, long size) {
+            this.id = id;
+            this.baseId = baseId;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * 讀取一段內容，已封存的段通過記憶體映射讀取，當前段直接從文件讀取
+         */
+        private ByteBuffer read(long offset, int length) throws IOException {
+            if (this != active) {
+                MappedByteBuffer buffer;
+                synchronized (this) {
+                    if (mapped == null || mapped.capacity() < size) {
+                        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                    buffer = mapped;
+                }
+                ByteBuffer slice = buffer.duplicate();
+                slice.position((int) offset).limit((int) offset + length);
+                return slice.slice();
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("日誌段 " + file.getName() + " 提前結束");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                plugin.getLogger().warning("關閉日誌段時出錯: " + file.getName() + " - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 記錄在段文件中的位置
+     */
+    private static class Pointer {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        private Pointer(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private ByteBuffer read() throws IOException {
+            return segment.read(offset, length);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package me.ninepin.mailBoxPlugin.enums;
+
+/**
+ * 信箱缓存模式枚举
+ * 定义信箱数据在内存中的驻留方式
+ */
+public enum CacheMode {
+    /** 启动时载入所有信箱，常驻内存 */
+    FULL,
+
+    /** 按需载入信箱，并淘汰闲置的离线玩家信箱 */
+    LAZY;
+
+    /**
+     * 从配置字符串解析缓存模式
+     * @param value 配置值
+     * @return 缓存模式，无法识别时返回 LAZY
+     */
+    public static CacheMode fromConfig(String value) {
+        if (value != null && value.equalsIgnoreCase("full")) {
+            return FULL;
+        }
+        return LAZY;
+    }
+}
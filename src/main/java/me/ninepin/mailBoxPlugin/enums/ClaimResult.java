@@ -0,0 +1,16 @@
+package me.ninepin.mailBoxPlugin.enums;
+
+/**
+ * 领取邮件结果枚举
+ * 定义存储层删除一封邮件时的结果
+ */
+public enum ClaimResult {
+    /** 邮件存在并已被本次领取删除 */
+    CLAIMED,
+
+    /** 邮件已不存在，已被其他操作或其他服务器领取 */
+    NOT_FOUND,
+
+    /** 存储出错，无法确定邮件是否仍然存在 */
+    FAILED
+}
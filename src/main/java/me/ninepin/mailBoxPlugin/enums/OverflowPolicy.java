@@ -0,0 +1,33 @@
+package me.ninepin.mailBoxPlugin.enums;
+
+/**
+ * 信箱溢出策略枚举
+ * 定义信箱达到邮件数量上限后如何处理新邮件
+ */
+public enum OverflowPolicy {
+    /** 拒绝新邮件，物品退回给发送方 */
+    REJECT,
+
+    /** 删除最早的邮件，为新邮件腾出位置 */
+    DROP_OLDEST,
+
+    /** 将新物品合并到信箱中相同且未满的物品堆，放不下的部分被拒绝 */
+    MERGE;
+
+    /**
+     * 从配置字符串解析溢出策略
+     * @param value 配置值
+     * @return 溢出策略，无法识别时返回 REJECT
+     */
+    public static OverflowPolicy fromConfig(String value) {
+        if (value != null) {
+            String normalized = value.trim().replace('-', '_');
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(normalized)) {
+                    return policy;
+                }
+            }
+        }
+        return REJECT;
+    }
+}
@@ -2,9 +2,14 @@ package me.ninepin.mailBoxPlugin.expansion;
 
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import me.ninepin.mailBoxPlugin.MailboxPlugin;
+import me.ninepin.mailBoxPlugin.manager.MailboxManager;
+import me.ninepin.mailBoxPlugin.model.MailboxSummary;
+import me.ninepin.mailBoxPlugin.utils.MailboxUtils;
 import org.bukkit.OfflinePlayer;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Locale;
+
 public class MailboxExpansion extends PlaceholderExpansion {
 
     private final MailboxPlugin plugin;
@@ -36,15 +41,43 @@ public class MailboxExpansion extends PlaceholderExpansion {
 
     @Override
     public String onRequest(OfflinePlayer player, @NotNull String params) {
+        // 所有佔位符只讀取預先維護的摘要，不會遍歷郵件或訪問存儲
+        MailboxManager mailboxManager = plugin.getMailboxManager();
+
+        // 全服統計不需要指定玩家
+        if (params.equalsIgnoreCase("server_total_mails")) {
+            return String.valueOf(mailboxManager.getServerTotalMails());
+        }
+        if (params.equalsIgnoreCase("server_players_with_mail")) {
+            return String.valueOf(mailboxManager.getServerPlayersWithMail());
+        }
+
         if (player == null) {
             return "";
         }
 
-        // 處理 %mailbox_unread_count%
-        if (params.equalsIgnoreCase("unread_count")) {
-            // 直接調用 MailboxManager 中的現有方法
-            int count = plugin.getMailboxManager().getUnreadMailCount(player.getUniqueId());
-            return String.valueOf(count);
+        switch (params.toLowerCase(Locale.ROOT)) {
+            // 處理 %mailbox_unread_count%
+            case "unread_count":
+                return String.valueOf(mailboxManager.getMailboxSummary(player.getUniqueId()).getUnreadCount());
+            case "total_count":
+                return String.valueOf(mailboxManager.getMailboxSummary(player.getUniqueId()).getTotalCount());
+            case "has_mail":
+                return String.valueOf(mailboxManager.getMailboxSummary(player.getUniqueId()).hasMail());
+            case "newest_age": {
+                MailboxSummary summary = mailboxManager.getMailboxSummary(player.getUniqueId());
+                return summary.hasMail()
+                        ? MailboxUtils.formatDuration(System.currentTimeMillis() - summary.getNewestTimestamp())
+                        : "";
+            }
+            case "oldest_age": {
+                MailboxSummary summary = mailboxManager.getMailboxSummary(player.getUniqueId());
+                return summary.hasMail()
+                        ? MailboxUtils.formatDuration(System.currentTimeMillis() - summary.getOldestTimestamp())
+                        : "";
+            }
+            default:
+                break;
         }
 
         return null; // 表示這個佔位符無法被解析
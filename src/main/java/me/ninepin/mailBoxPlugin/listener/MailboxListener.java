@@ -1,7 +1,9 @@
 package me.ninepin.mailBoxPlugin.listener;
 
 import me.ninepin.mailBoxPlugin.enums.MailboxType;
+import me.ninepin.mailBoxPlugin.manager.GuiManager;
 import me.ninepin.mailBoxPlugin.manager.MailboxManager;
+import me.ninepin.mailBoxPlugin.manager.MailboxView;
 import me.ninepin.mailBoxPlugin.model.MailItem;
 import me.ninepin.mailBoxPlugin.utils.MailboxUtils;
 import org.bukkit.Bukkit;
@@ -9,13 +11,19 @@ import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -37,25 +45,58 @@ public class MailboxListener implements Listener {
     }
 
     /**
-     * 当玩家登入时载入其信箱数据并通知未读邮件
+     * 玩家登录前在异步线程上开始载入其信箱，进入服务器时即可直接使用
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            mailboxManager.prefetchMailbox(event.getUniqueId());
+        }
+    }
+
+    /**
+     * 登录被拒绝 (例如服务器已满或被封禁) 时丢弃预载入
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            mailboxManager.discardPrefetch(event.getPlayer().getUniqueId());
+        }
+    }
+
+    /**
+     * 当玩家登入时取用预载入的信箱并通知未读邮件
      */
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        UUID playerUUID = event.getPlayer().getUniqueId();
-        mailboxManager.loadPlayerMailbox(playerUUID);
-
-        // 通知玩家未读邮件数量
-        int unreadCount = mailboxManager.getUnreadMailCount(playerUUID);
-        if (unreadCount > 0) {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    event.getPlayer().sendMessage(ChatColor.GOLD + "[信箱系統] " + ChatColor.YELLOW +
-                            "您有 " + unreadCount + " 封未讀郵件! 使用 /mail box 查看您的信箱。"
-                    );
-                }
-            }.runTaskLater(mailboxManager.getPlugin(), 40L); // 延迟2秒通知玩家
-        }
+        Player player = event.getPlayer();
+        UUID playerUUID = player.getUniqueId();
+        mailboxManager.getNameIndex().update(playerUUID, player.getName());
+
+        mailboxManager.whenJoinedMailboxLoaded(playerUUID, () -> {
+            // 通知玩家未读邮件数量
+            int unreadCount = mailboxManager.getUnreadMailCount(playerUUID);
+            if (unreadCount > 0) {
+                new BukkitRunnable() {
+                    @Override
+                    public void run() {
+                        if (player.isOnline()) {
+                            player.sendMessage(ChatColor.GOLD + "[信箱系統] " + ChatColor.YELLOW +
+                                    "您有 " + unreadCount + " 封未讀郵件! 使用 /mail box 查看您的信箱。"
+                            );
+                        }
+                    }
+                }.runTaskLater(mailboxManager.getPlugin(), 40L); // 延迟2秒通知玩家
+            }
+        });
+    }
+
+    /**
+     * 玩家退出时丢弃尚未取用的预载入
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        mailboxManager.discardPrefetch(event.getPlayer().getUniqueId());
     }
 
     /**
@@ -65,22 +106,34 @@ public class MailboxListener implements Listener {
     public void onInventoryClick(InventoryClickEvent event) {
         if (!(event.getWhoClicked() instanceof Player)) return;
         Player player = (Player) event.getWhoClicked();
-        UUID playerUUID = player.getUniqueId();
 
-        // 检查是否为我们的GUI
-        MailboxType type = mailboxManager.getOpenInventories().get(playerUUID);
-        if (type == null) return;
+        // 信箱界面通过背包持有者识别
+        InventoryHolder holder = event.getInventory().getHolder();
+        if (!(holder instanceof MailboxView)) {
+            // 管理员发送物品的GUI允许放入物品，不取消事件
+            return;
+        }
+        MailboxView view = (MailboxView) holder;
+        event.setCancelled(true);
 
-        switch (type) {
+        int slot = event.getRawSlot();
+        if (slot < 0 || slot >= event.getInventory().getSize()) return;
+
+        // 控制栏，只读模式下也可以翻页
+        if (slot >= GuiManager.PAGE_SIZE) {
+            handleControlClick(player, view, slot);
+            return;
+        }
+
+        UUID mailId = view.getMailId(slot);
+        if (mailId == null) return;
+
+        switch (view.getType()) {
             case PLAYER_MAILBOX:
-                handlePlayerMailboxClick(event, player, playerUUID);
-                break;
-            case ADMIN_SEND_ALL:
-            case ADMIN_SEND_PLAYER:
-                // 管理员GUI允许放入物品，不取消事件
+                handlePlayerMailboxClick(event, player, view, mailId);
                 break;
             case ADMIN_CHECK_MAILBOX:
-                handleAdminCheckMailboxClick(event, player, playerUUID);
+                handleAdminCheckMailboxClick(event, player, view, mailId);
                 break;
             default:
                 break;
@@ -88,96 +141,124 @@ public class MailboxListener implements Listener {
     }
 
     /**
-     * 处理玩家信箱GUI点击
+     * 处理控制栏点击 (翻页和一键领取)
      */
-    private void handlePlayerMailboxClick(InventoryClickEvent event, Player player, UUID playerUUID) {
-        if (event.getView().getTitle().contains("您的信箱")) {
-            event.setCancelled(true);
-
-            if (event.getRawSlot() >= 0 && event.getRawSlot() < event.getInventory().getSize()) {
-                List<MailItem> mails = mailboxManager.getPlayerMailboxes().get(playerUUID);
-                if (mails != null && event.getRawSlot() < mails.size()) {
-                    // 左键点击领取物品
-                    if (event.isLeftClick()) {
-                        MailItem mail = mails.get(event.getRawSlot());
-                        ItemStack item = mail.getItem();
-
-                        // 检查背包是否有空间
-                        if (MailboxUtils.hasInventorySpace(player.getInventory(), item)) {
-                            player.getInventory().addItem(item);
-                            mails.remove(event.getRawSlot());
-                            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN + "成功領取物品!");
-
-                            // 保存玩家信箱数据
-                            mailboxManager.getDataManager().savePlayerMailbox(playerUUID, mails);
-
-                            // 重新整理信箱界面而不是关闭
-                            Bukkit.getScheduler().runTaskLater(mailboxManager.getPlugin(), () -> {
-                                mailboxManager.openMailboxGUI(player);
-                            }, 1L);
-                        } else {
-                            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED + "您的背包已滿，無法領取物品!");
-                        }
-                    }
-                }
+    private void handleControlClick(Player player, MailboxView view, int slot) {
+        if (slot == GuiManager.CLAIM_ALL_SLOT && view.getType() == MailboxType.PLAYER_MAILBOX) {
+            mailboxManager.claimAll(player);
+            return;
+        }
+
+        int targetPage = getTargetPage(slot, view.getPage());
+        if (targetPage != view.getPage() && targetPage < view.getPageCount()) {
+            Bukkit.getScheduler().runTaskLater(mailboxManager.getPlugin(), () -> {
+                mailboxManager.refreshMailboxView(player, view, targetPage);
+            }, 1L);
+        }
+    }
+
+    /**
+     * 根据点击的控制栏格子计算要跳转的页码
+     */
+    private int getTargetPage(int slot, int page) {
+        if (slot == GuiManager.PREVIOUS_PAGE_SLOT) {
+            return Math.max(0, page - 1);
+        }
+        if (slot == GuiManager.NEXT_PAGE_SLOT) {
+            return page + 1;
+        }
+        return page;
+    }
+
+    /**
+     * 在信箱中查找格子对应的邮件，界面过期导致邮件已不存在时返回null
+     */
+    private MailItem findMail(UUID owner, UUID mailId) {
+        for (MailItem mail : mailboxManager.getMailbox(owner)) {
+            if (mail.getId().equals(mailId)) {
+                return mail;
             }
         }
+        return null;
     }
 
     /**
-     * 处理管理员查看信箱GUI点击
+     * 下一刻更新所有查看该信箱的界面
      */
-    private void handleAdminCheckMailboxClick(InventoryClickEvent event, Player player, UUID playerUUID) {
-        event.setCancelled(true);
+    private void scheduleRefresh(UUID owner) {
+        Bukkit.getScheduler().runTaskLater(mailboxManager.getPlugin(), () -> {
+            mailboxManager.refreshMailboxViews(owner);
+        }, 1L);
+    }
+
+    /**
+     * 处理玩家信箱GUI点击
+     */
+    private void handlePlayerMailboxClick(InventoryClickEvent event, Player player, MailboxView view, UUID mailId) {
+        // 左键点击领取物品
+        if (!event.isLeftClick()) return;
 
+        UUID playerUUID = player.getUniqueId();
+        MailItem mail = findMail(playerUUID, mailId);
+        if (mail == null) {
+            scheduleRefresh(playerUUID);
+            return;
+        }
+        ItemStack item = mail.getItem();
+
+        // 检查背包是否有空间
+        if (MailboxUtils.hasInventorySpace(player.getInventory(), item)) {
+            // 存储确认邮件被本次领取删除后才发放物品，并只更新变化的格子
+            mailboxManager.claimMail(player, mail.getId());
+        } else {
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED + "您的背包已滿，無法領取物品!");
+        }
+    }
+
+    /**
+     * 处理管理员查看信箱GUI点击
+     */
+    private void handleAdminCheckMailboxClick(InventoryClickEvent event, Player player, MailboxView view, UUID mailId) {
         // 检查是否为管理员权限
-        if (player.hasPermission("mailbox.admin")) {
-            int slot = event.getRawSlot();
-            UUID targetUUID = mailboxManager.getTargetPlayers().get(playerUUID);
-
-            if (targetUUID != null && slot >= 0 && slot < event.getInventory().getSize()) {
-                List<MailItem> mails = mailboxManager.getPlayerMailboxes().get(targetUUID);
-                if (mails != null && slot < mails.size()) {
-                    if (event.isShiftClick() && event.isRightClick()) {
-                        // Shift+右键 - 删除物品
-                        ItemStack removedItem = mails.get(slot).getItem();
-                        String itemName = MailboxUtils.getItemDisplayName(removedItem);
-
-                        // 从列表中移除物品
-                        mails.remove(slot);
-
-                        // 保存玩家信箱数据
-                        mailboxManager.getDataManager().savePlayerMailbox(targetUUID, mails);
-
-                        // 通知管理员
-                        String targetName = Bukkit.getOfflinePlayer(targetUUID).getName();
-                        player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
-                                "成功從 " + targetName + " 的信箱中刪除物品: " + itemName);
-
-                        // 记录到服务器日志
-                        mailboxManager.getPlugin().getLogger().info("管理员 " + player.getName() + " 从玩家 " + targetName + " 的信箱中删除了物品: " + itemName);
-
-                        // 重新整理GUI
-                        Bukkit.getScheduler().runTaskLater(mailboxManager.getPlugin(), () -> {
-                            mailboxManager.openAdminCheckMailboxGUI(player, targetUUID, targetName);
-                        }, 1L);
-                    } else if (event.isLeftClick()) {
-                        // 左键 - 将物品给予自己
-                        ItemStack item = mails.get(slot).getItem().clone();
-
-                        // 检查管理员背包是否有空间
-                        if (MailboxUtils.hasInventorySpace(player.getInventory(), item)) {
-                            player.getInventory().addItem(item);
-
-                            String targetName = Bukkit.getOfflinePlayer(targetUUID).getName();
-                            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
-                                    "成功從 " + targetName + " 的信箱中取出物品 (不會從信箱中移除)");
-                        } else {
-                            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED +
-                                    "您的背包已滿，無法取出物品!");
-                        }
-                    }
-                }
+        if (!player.hasPermission("mailbox.admin")) return;
+
+        UUID targetUUID = view.getOwner();
+        MailItem mail = findMail(targetUUID, mailId);
+        if (mail == null) {
+            scheduleRefresh(targetUUID);
+            return;
+        }
+        String targetName = view.getOwnerName();
+
+        if (event.isShiftClick() && event.isRightClick()) {
+            // Shift+右键 - 删除物品
+            String itemName = MailboxUtils.getItemDisplayName(mail.getItem());
+
+            // 从信箱中移除该邮件
+            mailboxManager.removeMail(targetUUID, mail.getId());
+
+            // 通知管理员
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
+                    "成功從 " + targetName + " 的信箱中刪除物品: " + itemName);
+
+            // 记录到服务器日志
+            mailboxManager.getPlugin().getLogger().info("管理员 " + player.getName() + " 从玩家 " + targetName + " 的信箱中删除了物品: " + itemName);
+
+            // 更新所有查看该信箱的界面
+            scheduleRefresh(targetUUID);
+        } else if (event.isLeftClick()) {
+            // 左键 - 将物品给予自己
+            ItemStack item = mail.getItem().clone();
+
+            // 检查管理员背包是否有空间
+            if (MailboxUtils.hasInventorySpace(player.getInventory(), item)) {
+                player.getInventory().addItem(item);
+
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
+                        "成功從 " + targetName + " 的信箱中取出物品 (不會從信箱中移除)");
+            } else {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED +
+                        "您的背包已滿，無法取出物品!");
             }
         }
     }
@@ -201,6 +282,10 @@ public class MailboxListener implements Listener {
             case ADMIN_SEND_PLAYER:
                 handleAdminSendPlayerClose(event, player, playerUUID);
                 break;
+            case ADMIN_CHECK_MAILBOX:
+                // 停止查看后该信箱可以被缓存淘汰
+                mailboxManager.getTargetPlayers().remove(playerUUID);
+                break;
             default:
                 break;
         }
@@ -212,27 +297,17 @@ public class MailboxListener implements Listener {
      * 处理管理员发送给所有玩家GUI关闭
      */
     private void handleAdminSendAllClose(InventoryCloseEvent event, Player player) {
-        boolean itemsSent = false;
+        List<ItemStack> items = new ArrayList<>();
         for (ItemStack item : event.getInventory().getContents()) {
             if (item != null && item.getType() != Material.AIR) {
-                itemsSent = true;
-                // 发送给所有在线玩家
-                for (Player onlinePlayer : Bukkit.getOnlinePlayers()) {
-                    mailboxManager.addMailToPlayer(onlinePlayer.getUniqueId(), item.clone());
-                }
-
-                // 给离线玩家也发送物品
-                for (UUID uuid : mailboxManager.getPlayerMailboxes().keySet()) {
-                    if (Bukkit.getPlayer(uuid) == null) {
-                        mailboxManager.addMailToPlayer(uuid, item.clone());
-                    }
-                }
+                items.add(item.clone());
             }
         }
 
-        if (itemsSent) {
-            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN + "成功發送物品給所有玩家!");
-            mailboxManager.getPlugin().getLogger().info("管理员 " + player.getName() + " 向所有玩家发送了物品");
+        if (!items.isEmpty()) {
+            // 广播邮件只保存一份，玩家访问信箱时再放入各自的信箱
+            mailboxManager.sendBroadcast(player, items);
+            mailboxManager.getPlugin().getLogger().info("管理员 " + player.getName() + " 向所有玩家发送了 " + items.size() + " 件物品");
         }
     }
 
@@ -240,37 +315,70 @@ public class MailboxListener implements Listener {
      * 处理管理员发送给指定玩家GUI关闭
      */
     private void handleAdminSendPlayerClose(InventoryCloseEvent event, Player player, UUID playerUUID) {
-        UUID targetUUID = mailboxManager.getTargetPlayers().get(playerUUID);
-        if (targetUUID != null) {
-            boolean sentToTarget = false;
-            String targetName = Bukkit.getOfflinePlayer(targetUUID).getName();
+        UUID targetUUID = mailboxManager.getTargetPlayers().remove(playerUUID);
+        if (targetUUID == null) return;
 
-            for (ItemStack item : event.getInventory().getContents()) {
-                if (item != null && item.getType() != Material.AIR) {
-                    sentToTarget = true;
-                    // 修改后：总是发送到信箱，不考虑玩家是否在线或背包空间
-                    mailboxManager.addMailToPlayer(targetUUID, item.clone());
-
-                    // 如果玩家在线，额外发送通知
-                    Player targetPlayer = Bukkit.getPlayer(targetUUID);
-                    if (targetPlayer != null && targetPlayer.isOnline()) {
-                        targetPlayer.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
-                                "您收到了管理員發送的物品! 請使用 /mail box 查看您的信箱。");
-                    }
+        List<ItemStack> items = new ArrayList<>();
+        for (ItemStack item : event.getInventory().getContents()) {
+            if (item != null && item.getType() != Material.AIR) {
+                items.add(item.clone());
+            }
+        }
+        if (items.isEmpty()) return;
+
+        // 离线玩家的信箱可能需要从存储读取，载入完成后再放入物品；载入失败时物品退回管理员
+        mailboxManager.whenMailboxLoaded(targetUUID, player, () -> {
+            String targetName = Bukkit.getOfflinePlayer(targetUUID).getName();
+            int returned = 0;
+            for (ItemStack item : items) {
+                // 修改后：总是发送到信箱，不考虑玩家是否在线或背包空间
+                ItemStack rejected = mailboxManager.addMailToPlayer(targetUUID, item);
+                if (rejected != null) {
+                    // 目标信箱已满，退回给管理员
+                    mailboxManager.returnToPlayer(player, rejected);
+                    returned++;
+                    continue;
+                }
 
-                    // 记录到服务器日志
-                    String itemName = MailboxUtils.getItemDisplayName(item);
-                    mailboxManager.getPlugin().getLogger().info("管理员 " + player.getName() +
-                            " 向玩家 " + targetName + " 发送了物品: " + itemName);
+                // 如果玩家在线，额外发送通知
+                Player targetPlayer = Bukkit.getPlayer(targetUUID);
+                if (targetPlayer != null && targetPlayer.isOnline()) {
+                    targetPlayer.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
+                            "您收到了管理員發送的物品! 請使用 /mail box 查看您的信箱。");
                 }
+
+                // 记录到服务器日志
+                String itemName = MailboxUtils.getItemDisplayName(item);
+                mailboxManager.getPlugin().getLogger().info("管理员 " + player.getName() +
+                        " 向玩家 " + targetName + " 发送了物品: " + itemName);
             }
 
-            if (sentToTarget) {
+            if (returned > 0) {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED +
+                        "玩家 " + targetName + " 的信箱已滿，" + returned + " 件物品已退回您的背包。");
+            }
+            if (returned < items.size()) {
                 player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN +
                         "成功發送物品給玩家 " + targetName + "!");
             }
-
-            mailboxManager.getTargetPlayers().remove(playerUUID);
-        }
+            // 目标玩家正在查看信箱时显示新邮件
+            scheduleRefresh(targetUUID);
+        }, () -> {
+            if (!player.isOnline()) {
+                // 管理员已离线，物品放入管理员自己的信箱
+                for (ItemStack item : items) {
+                    if (mailboxManager.addMailToPlayer(playerUUID, item) != null) {
+                        mailboxManager.getPlugin().getLogger().severe("无法退回管理员 " + player.getName() +
+                                " 发送的物品: " + MailboxUtils.getItemDisplayName(item));
+                    }
+                }
+                return;
+            }
+            for (ItemStack item : items) {
+                mailboxManager.returnToPlayer(player, item);
+            }
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED +
+                    "無法載入目標玩家的信箱，" + items.size() + " 件物品已退回您的背包。");
+        });
     }
 }
\ No newline at end of file
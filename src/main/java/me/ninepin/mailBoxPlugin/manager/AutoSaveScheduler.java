@@ -0,0 +1,206 @@
+package me.ninepin.mailBoxPlugin.manager;
+
+import me.ninepin.mailBoxPlugin.model.PlayerMailbox;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * 分片自动保存调度器
+ * 按玩家UUID的哈希把信箱分成若干分片，每次只保存一个分片中有修改的信箱，使写入均匀分布在整个保存间隔内
+ * 写入速度由令牌桶限制，每写入一行邮件消耗一个令牌；存储延迟超过目标时速度减半，恢复后逐步增加
+ * 除统计数据外，所有状态只在写入线程上访问
+ */
+public class AutoSaveScheduler {
+
+    private final MailboxManager mailboxManager;
+    private final MailboxCache cache;
+    private final MailWriteQueue writeQueue;
+    private final Logger logger;
+    private final int shards;
+    private final long sliceTicks;
+    private final double sliceSeconds;
+    private final double minRowsPerSecond;
+    private final double maxRowsPerSecond;
+    private final long latencyTargetMillis;
+
+    // 预算不足而延后到下一个分片保存的信箱
+    private final Set<UUID> deferred = new LinkedHashSet<>();
+    private int nextShard;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private volatile double rowsPerSecond;
+    private volatile int deferredCount;
+
+    // 一轮 (所有分片各保存一次) 的统计
+    private long cycleStart = System.nanoTime();
+    private int cycleMailboxes;
+    private int cycleRows;
+    private int cycleFailed;
+
+    /**
+     * 构造函数
+     *
+     * @param mailboxManager      信箱管理器，负责按版本保存单个信箱
+     * @param cache               信箱缓存
+     * @param writeQueue          写入队列
+     * @param logger              日志记录器
+     * @param intervalMinutes     完整保存一轮的间隔 (分钟)
+     * @param shards              分片数量
+     * @param minRowsPerSecond    存储变慢时每秒写入行数的下限
+     * @param maxRowsPerSecond    每秒最多写入的行数
+     * @param latencyTargetMillis 单个信箱保存耗时的目标 (毫秒)
+     */
+    public AutoSaveScheduler(MailboxManager mailboxManager, MailboxCache cache, MailWriteQueue writeQueue, Logger logger,
+                             long intervalMinutes, int shards, double minRowsPerSecond, double maxRowsPerSecond,
+                             long latencyTargetMillis) {
+        this.mailboxManager = mailboxManager;
+        this.cache = cache;
+        this.writeQueue = writeQueue;
+        this.logger = logger;
+        this.shards = Math.max(1, shards);
+        this.sliceTicks = Math.max(1L, Math.max(1L, intervalMinutes) * 1200L / this.shards);
+        this.sliceSeconds = sliceTicks / 20.0;
+        this.maxRowsPerSecond = Math.max(1.0, maxRowsPerSecond);
+        this.minRowsPerSecond = Math.max(1.0, Math.min(minRowsPerSecond, this.maxRowsPerSecond));
+        this.latencyTargetMillis = Math.max(1L, latencyTargetMillis);
+        this.rowsPerSecond = this.maxRowsPerSecond;
+    }
+
+    /**
+     * 获取两个分片之间的间隔
+     *
+     * @return 间隔 (tick)
+     */
+    public long getSliceTicks() {
+        return sliceTicks;
+    }
+
+    /**
+     * 保存下一个分片中有修改的信箱，必须在写入线程上调用
+     * 上一分片延后的信箱优先保存，令牌用完时剩余的信箱延后到下一个分片
+     */
+    public void runSlice() {
+        refill();
+        int shard = nextShard;
+        nextShard = (nextShard + 1) % shards;
+
+        Set<PlayerMailbox> candidates = new LinkedHashSet<>();
+        for (Iterator<UUID> iterator = deferred.iterator(); iterator.hasNext(); ) {
+            PlayerMailbox mailbox = cache.getIfPresent(iterator.next());
+            iterator.remove();
+            if (mailbox != null) {
+                candidates.add(mailbox);
+            }
+        }
+        for (PlayerMailbox mailbox : cache.values()) {
+            if (Math.floorMod(mailbox.getOwner().hashCode(), shards) == shard) {
+                candidates.add(mailbox);
+            }
+        }
+
+        long slowest = -1;
+        for (PlayerMailbox mailbox : candidates) {
+            // 仍有修改在写入队列中的信箱由队列负责写入
+            if (!mailbox.isDirty() || writeQueue.hasPending(mailbox.getOwner())) {
+                continue;
+            }
+            if (tokens <= 0) {
+                deferred.add(mailbox.getOwner());
+                continue;
+            }
+            slowest = Math.max(slowest, save(mailbox));
+        }
+        deferredCount = deferred.size();
+
+        if (slowest >= 0) {
+            adjustRate(slowest);
+        }
+        if (shard == shards - 1) {
+            finishCycle();
+        }
+    }
+
+    /**
+     * 保存单个信箱并消耗令牌
+     *
+     * @return 保存耗时 (毫秒)
+     */
+    private long save(PlayerMailbox mailbox) {
+        int mailCount = mailbox.getTotalCount();
+        long start = System.nanoTime();
+        int rows = mailboxManager.saveMailbox(mailbox);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+
+        tokens -= Math.max(1, rows >= 0 ? rows : mailCount);
+        if (rows >= 0) {
+            cycleMailboxes++;
+            cycleRows += rows;
+        } else {
+            cycleFailed++;
+            // 写入失败视为存储过载
+            elapsedMillis = Math.max(elapsedMillis, latencyTargetMillis + 1);
+        }
+        return elapsedMillis;
+    }
+
+    /**
+     * 按经过的时间补充令牌，最多积累一个分片间隔的预算
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        double rate = rowsPerSecond;
+        tokens = Math.min(rate * sliceSeconds, tokens + rate * (now - lastRefillNanos) / 1_000_000_000.0);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * 根据本分片最慢一次保存的耗时调整写入速度：超过目标时减半，否则增加最大速度的十分之一
+     */
+    private void adjustRate(long slowestMillis) {
+        if (slowestMillis > latencyTargetMillis) {
+            rowsPerSecond = Math.max(minRowsPerSecond, rowsPerSecond / 2);
+        } else {
+            rowsPerSecond = Math.min(maxRowsPerSecond, rowsPerSecond + maxRowsPerSecond / 10);
+        }
+    }
+
+    private void finishCycle() {
+        if (cycleMailboxes > 0 || cycleFailed > 0) {
+            long elapsedSeconds = (System.nanoTime() - cycleStart) / 1_000_000_000L;
+            logger.info("自动保存完成: 写入 " + cycleMailboxes + " 个信箱, " + cycleRows + " 封邮件, 历时 " +
+                    elapsedSeconds + "s, 当前速度 " + (int) rowsPerSecond + " 行/秒" +
+                    (cycleFailed > 0 ? ", 失败 " + cycleFailed + " 个" : "") +
+                    (deferredCount > 0 ? ", 延后 " + deferredCount + " 个" : ""));
+        }
+        cycleStart = System.nanoTime();
+        cycleMailboxes = 0;
+        cycleRows = 0;
+        cycleFailed = 0;
+    }
+
+    /**
+     * 获取当前允许的写入速度
+     *
+     * @return 每秒写入行数
+     */
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * 获取因预算不足而延后保存的信箱数量
+     *
+     * @return 信箱数量
+     */
+    public int getDeferredCount() {
+        return deferredCount;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+}
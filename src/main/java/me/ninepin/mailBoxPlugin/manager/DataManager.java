@@ -1,6 +1,12 @@
 package me.ninepin.mailBoxPlugin.manager;
 
+import me.ninepin.mailBoxPlugin.enums.ClaimResult;
+import me.ninepin.mailBoxPlugin.model.BroadcastMail;
 import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailStatistics;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import me.ninepin.mailBoxPlugin.model.MailboxMerge;
+import me.ninepin.mailBoxPlugin.model.MailboxSaveResult;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.inventory.ItemStack;
@@ -9,6 +15,7 @@ import org.bukkit.plugin.java.JavaPlugin;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 /**
  * 数据管理类
@@ -16,8 +23,14 @@ import java.util.*;
  */
 public class DataManager implements IDataManager {
 
+    private static final String WATERMARK_KEY = "broadcast-watermark";
+
     private final JavaPlugin plugin;
     private final File dataFolder;
+    private final File broadcastFile;
+    private volatile long mailExpireMillis = -1;
+    // 每个信箱的版本，每次写入信箱文件加一；文件只由本服务器写入，版本不需要保存
+    private final Map<UUID, Long> versions = new HashMap<>();
 
     /**
      * 构造函数
@@ -27,6 +40,7 @@ public class DataManager implements IDataManager {
     public DataManager(JavaPlugin plugin) {
         this.plugin = plugin;
         this.dataFolder = new File(plugin.getDataFolder(), "mailboxes");
+        this.broadcastFile = new File(plugin.getDataFolder(), "broadcasts.yml");
 
         // 创建数据文件夹
         if (!dataFolder.exists()) {
@@ -70,44 +84,203 @@ public class DataManager implements IDataManager {
     @Override
     public List<MailItem> loadPlayerMailbox(UUID playerUUID) {
         File playerFile = new File(dataFolder, playerUUID.toString() + ".yml");
+        if (!playerFile.exists()) {
+            return new ArrayList<>();
+        }
+
+        FileConfiguration config = YamlConfiguration.loadConfiguration(playerFile);
+        return readMails(playerUUID, config);
+    }
+
+    /**
+     * 从信箱文件配置中读取邮件列表
+     *
+     * @param playerUUID 玩家UUID
+     * @param config     信箱文件配置
+     * @return 玩家的邮件列表
+     */
+    private List<MailItem> readMails(UUID playerUUID, FileConfiguration config) {
         List<MailItem> mailItems = new ArrayList<>();
+        boolean missingIds = false;
+        boolean expired = false;
+        long cutoff = expiryCutoff();
 
-        if (playerFile.exists()) {
-            FileConfiguration config = YamlConfiguration.loadConfiguration(playerFile);
-            List<Map<?, ?>> mailList = config.getMapList("mails");
+        List<Map<?, ?>> mailList = config.getMapList("mails");
 
-            for (Map<?, ?> mailMap : mailList) {
-                try {
-                    ItemStack item = (ItemStack) mailMap.get("item");
-                    long timestamp = (Long) mailMap.get("timestamp");
-                    boolean isRead = (Boolean) mailMap.get("isRead");
-
-                    MailItem mailItem = new MailItem(item, timestamp, isRead);
-                    mailItems.add(mailItem);
-                } catch (Exception e) {
-                    plugin.getLogger().warning("加载邮件数据时出错: " + e.getMessage());
+        for (Map<?, ?> mailMap : mailList) {
+            try {
+                long timestamp = (Long) mailMap.get("timestamp");
+                if (timestamp < cutoff) {
+                    expired = true;
+                    continue;
+                }
+                ItemStack item = (ItemStack) mailMap.get("item");
+                boolean isRead = (Boolean) mailMap.get("isRead");
+
+                // 旧版本数据没有邮件ID，为其生成新ID
+                Object id = mailMap.get("id");
+                UUID mailId;
+                if (id != null) {
+                    mailId = UUID.fromString(id.toString());
+                } else {
+                    mailId = UUID.randomUUID();
+                    missingIds = true;
                 }
+
+                MailItem mailItem = new MailItem(mailId, item, timestamp, isRead);
+                mailItems.add(mailItem);
+            } catch (Exception e) {
+                plugin.getLogger().warning("加载邮件数据时出错: " + e.getMessage());
             }
         }
 
+        // 立即写回生成的ID，确保之后按ID修改的操作能找到对应邮件；过期的邮件同时从文件中删除
+        if (missingIds || expired) {
+            writeMailbox(playerUUID, config, mailItems);
+        }
+
         return mailItems;
     }
 
     /**
-     * 保存指定玩家的信箱数据
+     * 获取所有拥有信箱文件的玩家
+     *
+     * @return 玩家UUID集合
+     */
+    @Override
+    public Set<UUID> loadMailboxOwners() {
+        Set<UUID> owners = new HashSet<>();
+
+        File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                try {
+                    owners.add(UUID.fromString(fileName.substring(0, fileName.length() - 4)));
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("无效的UUID文件名: " + fileName);
+                }
+            }
+        }
+
+        return owners;
+    }
+
+    /**
+     * 统计所有信箱文件中的邮件数量
+     *
+     * @return 全服邮件统计
+     */
+    @Override
+    public MailStatistics loadMailStatistics() {
+        long totalMails = 0;
+        int playersWithMail = 0;
+
+        File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+        if (files != null) {
+            long cutoff = expiryCutoff();
+            for (File file : files) {
+                int count = 0;
+                for (Map<?, ?> mailMap : YamlConfiguration.loadConfiguration(file).getMapList("mails")) {
+                    Object timestamp = mailMap.get("timestamp");
+                    if (!(timestamp instanceof Long) || (Long) timestamp >= cutoff) {
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    totalMails += count;
+                    playersWithMail++;
+                }
+            }
+        }
+
+        return new MailStatistics(totalMails, playersWithMail);
+    }
+
+    /**
+     * 查找邮件数量超过上限的信箱，只计数不反序列化物品
+     *
+     * @param maxMails 邮件数量上限
+     * @return 玩家UUID集合
+     */
+    @Override
+    public Set<UUID> findOversizedMailboxes(int maxMails) {
+        Set<UUID> owners = new HashSet<>();
+        long cutoff = expiryCutoff();
+        for (UUID owner : loadMailboxOwners()) {
+            File file = new File(dataFolder, owner + ".yml");
+            int count = 0;
+            for (Map<?, ?> mailMap : YamlConfiguration.loadConfiguration(file).getMapList("mails")) {
+                Object timestamp = mailMap.get("timestamp");
+                if (!(timestamp instanceof Long) || (Long) timestamp >= cutoff) {
+                    count++;
+                }
+            }
+            if (count > maxMails) {
+                owners.add(owner);
+            }
+        }
+        return owners;
+    }
+
+    @Override
+    public long loadMailboxVersion(UUID playerUUID) {
+        synchronized (versions) {
+            return versions.getOrDefault(playerUUID, 0L);
+        }
+    }
+
+    /**
+     * 按版本保存信箱，版本已变时先与文件中的目前内容逐封合并
+     * 文件存储每次都重写整个文件，因此直接写入合并后的列表
+     *
+     * @param playerUUID  玩家UUID
+     * @param base        上次同步时的邮件列表
+     * @param baseVersion 上次同步时的版本
+     * @param mailItems   本地的邮件列表
+     * @return 保存结果
+     */
+    @Override
+    public MailboxSaveResult saveMailbox(UUID playerUUID, List<MailItem> base, long baseVersion, List<MailItem> mailItems) {
+        synchronized (versions) {
+            FileConfiguration config = loadConfig(playerUUID);
+            if (versions.getOrDefault(playerUUID, 0L) == baseVersion) {
+                return writeMailbox(playerUUID, config, mailItems)
+                        ? MailboxSaveResult.saved(versions.get(playerUUID)) : MailboxSaveResult.FAILED;
+            }
+            List<MailItem> merged = MailboxMerge.merge(base, mailItems, readMails(playerUUID, config));
+            return writeMailbox(playerUUID, config, merged)
+                    ? MailboxSaveResult.merged(versions.get(playerUUID), merged) : MailboxSaveResult.FAILED;
+        }
+    }
+
+    /**
+     * 读取玩家信箱文件配置，文件不存在时返回空配置
      *
      * @param playerUUID 玩家UUID
+     * @return 信箱文件配置
+     */
+    private FileConfiguration loadConfig(UUID playerUUID) {
+        File playerFile = new File(dataFolder, playerUUID.toString() + ".yml");
+        return playerFile.exists() ? YamlConfiguration.loadConfiguration(playerFile) : new YamlConfiguration();
+    }
+
+    /**
+     * 将邮件列表写入玩家信箱文件，保留文件中的其他数据 (如广播水位)
+     *
+     * @param playerUUID 玩家UUID
+     * @param config     信箱文件配置
      * @param mailItems  邮件列表
+     * @return 是否保存成功
      */
-    @Override
-    public void savePlayerMailbox(UUID playerUUID, List<MailItem> mailItems) {
+    private boolean writeMailbox(UUID playerUUID, FileConfiguration config, List<MailItem> mailItems) {
         File playerFile = new File(dataFolder, playerUUID.toString() + ".yml");
-        FileConfiguration config = new YamlConfiguration();
         List<Map<String, Object>> mailList = new ArrayList<>();
 
         if (mailItems != null) {
             for (MailItem mail : mailItems) {
                 Map<String, Object> mailMap = new HashMap<>();
+                mailMap.put("id", mail.getId().toString());
                 mailMap.put("item", mail.getItem());
                 mailMap.put("timestamp", mail.getTimestamp());
                 mailMap.put("isRead", mail.isRead());
@@ -119,22 +292,278 @@ public class DataManager implements IDataManager {
 
         try {
             config.save(playerFile);
+            synchronized (versions) {
+                versions.merge(playerUUID, 1L, Long::sum);
+            }
+            return true;
         } catch (IOException e) {
             plugin.getLogger().severe("无法保存玩家信箱数据: " + playerUUID);
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 添加一封邮件
+     * 文件存储以玩家为单位，仍需重写该玩家的信箱文件
+     *
+     * @param playerUUID 玩家UUID
+     * @param mail       邮件
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean appendMail(UUID playerUUID, MailItem mail) {
+        return modifyMailbox(playerUUID, (config, mails) -> mails.add(mail));
+    }
+
+    /**
+     * 按邮件ID删除一封邮件
+     *
+     * @param playerUUID 玩家UUID
+     * @param mailId     邮件ID
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean removeMail(UUID playerUUID, UUID mailId) {
+        return modifyMailbox(playerUUID, (config, mails) -> mails.removeIf(mail -> mail.getId().equals(mailId)));
+    }
+
+    /**
+     * 领取一封邮件
+     *
+     * @param playerUUID 玩家UUID
+     * @param mailId     邮件ID
+     * @return 领取结果
+     */
+    @Override
+    public ClaimResult claimMail(UUID playerUUID, UUID mailId) {
+        Set<UUID> claimed = claimMails(playerUUID, Collections.singletonList(mailId));
+        if (claimed == null) {
+            return ClaimResult.FAILED;
+        }
+        return claimed.isEmpty() ? ClaimResult.NOT_FOUND : ClaimResult.CLAIMED;
+    }
+
+    /**
+     * 领取多封邮件，只删除仍在文件中的邮件并重写一次文件
+     *
+     * @param playerUUID 玩家UUID
+     * @param mailIds    邮件ID集合
+     * @return 实际删除的邮件ID，保存失败时返回null
+     */
+    @Override
+    public Set<UUID> claimMails(UUID playerUUID, Collection<UUID> mailIds) {
+        synchronized (versions) {
+            FileConfiguration config = loadConfig(playerUUID);
+            List<MailItem> mailItems = readMails(playerUUID, config);
+            Set<UUID> claimed = new LinkedHashSet<>();
+            mailItems.removeIf(mail -> mailIds.contains(mail.getId()) && claimed.add(mail.getId()));
+            if (claimed.isEmpty()) {
+                return claimed;
+            }
+            return writeMailbox(playerUUID, config, mailItems) ? claimed : null;
+        }
+    }
+
+    /**
+     * 将指定邮件标记为已读
+     *
+     * @param playerUUID 玩家UUID
+     * @param mailIds    邮件ID集合
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean markRead(UUID playerUUID, Collection<UUID> mailIds) {
+        if (mailIds.isEmpty()) {
+            return true;
+        }
+        return modifyMailbox(playerUUID, (config, mails) ->
+                mails.replaceAll(mail -> mailIds.contains(mail.getId()) ? mail.asRead() : mail));
+    }
+
+    /**
+     * 按邮件ID替换一封邮件
+     *
+     * @param playerUUID 玩家UUID
+     * @param mail       新的邮件内容
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean updateMail(UUID playerUUID, MailItem mail) {
+        return modifyMailbox(playerUUID, (config, mails) ->
+                mails.replaceAll(old -> old.getId().equals(mail.getId()) ? mail : old));
+    }
+
+    /**
+     * 一次性应用多项变更，只重写一次信箱文件
+     *
+     * @param playerUUID 玩家UUID
+     * @param changes    变更集
+     * @return 写入后的信箱版本，失败时返回-1
+     */
+    @Override
+    public long applyChanges(UUID playerUUID, MailboxChangeSet changes) {
+        synchronized (versions) {
+            if (!changes.isEmpty() && !writeChanges(playerUUID, changes)) {
+                return -1;
+            }
+            return versions.getOrDefault(playerUUID, 0L);
+        }
+    }
+
+    private boolean writeChanges(UUID playerUUID, MailboxChangeSet changes) {
+        return modifyMailbox(playerUUID, (config, mails) -> {
+            if (changes.getBroadcastWatermark() > config.getLong(WATERMARK_KEY, 0)) {
+                config.set(WATERMARK_KEY, changes.getBroadcastWatermark());
+            }
+            mails.removeIf(mail -> changes.getRemoved().contains(mail.getId()));
+            for (MailItem updated : changes.getUpdated()) {
+                mails.replaceAll(old -> old.getId().equals(updated.getId()) ? updated : old);
+            }
+            mails.replaceAll(mail -> changes.getRead().contains(mail.getId()) ? mail.asRead() : mail);
+            mails.addAll(changes.getAppended());
+        });
+    }
+
+    /**
+     * 读取玩家信箱文件，修改后写回
+     *
+     * @param playerUUID 玩家UUID
+     * @param modifier   修改操作
+     * @return 是否保存成功
+     */
+    private boolean modifyMailbox(UUID playerUUID, BiConsumer<FileConfiguration, List<MailItem>> modifier) {
+        // 写入线程与领取线程可能同时修改同一个文件，读取和写回在同一把锁内完成
+        synchronized (versions) {
+            FileConfiguration config = loadConfig(playerUUID);
+            List<MailItem> mailItems = readMails(playerUUID, config);
+            modifier.accept(config, mailItems);
+            return writeMailbox(playerUUID, config, mailItems);
         }
     }
 
     /**
-     * 保存所有玩家的信箱数据
+     * 清理不再被引用的共享物品
+     * 文件存储中每封邮件直接保存物品，没有共享物品需要清理
      *
-     * @param playerMailboxes 所有玩家的信箱数据
+     * @return 清理的物品数量
      */
     @Override
-    public void saveAllMailboxes(Map<UUID, List<MailItem>> playerMailboxes) {
-        for (Map.Entry<UUID, List<MailItem>> entry : playerMailboxes.entrySet()) {
-            savePlayerMailbox(entry.getKey(), entry.getValue());
+    public int purgeUnusedItems() {
+        return 0;
+    }
+
+    /**
+     * 文件存储只供单个服务器使用，没有变更日志
+     */
+    @Override
+    public boolean supportsRemoteChanges() {
+        return false;
+    }
+
+    @Override
+    public Set<UUID> pollRemoteChanges() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * 设置邮件的保存时间，过期的邮件在读取时跳过并从文件中删除
+     *
+     * @param expireAfterMillis 保存时间 (毫秒)，不大于0表示永不过期
+     */
+    @Override
+    public void setMailExpiry(long expireAfterMillis) {
+        this.mailExpireMillis = expireAfterMillis;
+    }
+
+    /**
+     * 删除过期邮件
+     * 文件存储没有按时间的索引，逐个扫描文件代价太高；过期邮件在信箱下次被读取时删除
+     *
+     * @param cutoff 早于该时间的邮件视为过期
+     * @param limit  最多删除的数量
+     * @return 删除的邮件数量和因此清空的信箱数量
+     */
+    @Override
+    public MailStatistics deleteExpiredMails(long cutoff, int limit) {
+        return new MailStatistics(0, 0);
+    }
+
+    private long expiryCutoff() {
+        return mailExpireMillis > 0 ? System.currentTimeMillis() - mailExpireMillis : Long.MIN_VALUE;
+    }
+
+    /**
+     * 保存一封广播邮件
+     *
+     * @param item      物品
+     * @param timestamp 发送时间戳
+     * @return 新广播的ID，保存失败时返回-1
+     */
+    @Override
+    public long saveBroadcast(ItemStack item, long timestamp) {
+        FileConfiguration config = YamlConfiguration.loadConfiguration(broadcastFile);
+        long id = config.getLong("next-id", 1);
+
+        List<Map<?, ?>> broadcastList = new ArrayList<>(config.getMapList("broadcasts"));
+        Map<String, Object> broadcastMap = new HashMap<>();
+        broadcastMap.put("id", id);
+        broadcastMap.put("item", item);
+        broadcastMap.put("timestamp", timestamp);
+        broadcastList.add(broadcastMap);
+
+        config.set("broadcasts", broadcastList);
+        config.set("next-id", id + 1);
+
+        try {
+            config.save(broadcastFile);
+            return id;
+        } catch (IOException e) {
+            plugin.getLogger().severe("无法保存广播邮件: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * 加载所有广播邮件
+     *
+     * @return 按ID递增排序的广播邮件列表
+     */
+    @Override
+    public List<BroadcastMail> loadBroadcasts() {
+        List<BroadcastMail> broadcasts = new ArrayList<>();
+        if (!broadcastFile.exists()) {
+            return broadcasts;
+        }
+
+        FileConfiguration config = YamlConfiguration.loadConfiguration(broadcastFile);
+        for (Map<?, ?> broadcastMap : config.getMapList("broadcasts")) {
+            try {
+                long id = ((Number) broadcastMap.get("id")).longValue();
+                ItemStack item = (ItemStack) broadcastMap.get("item");
+                long timestamp = ((Number) broadcastMap.get("timestamp")).longValue();
+                broadcasts.add(new BroadcastMail(id, item, timestamp));
+            } catch (Exception e) {
+                plugin.getLogger().warning("加载广播邮件时出错: " + e.getMessage());
+            }
+        }
+        broadcasts.sort(Comparator.comparingLong(BroadcastMail::getId));
+        return broadcasts;
+    }
+
+    /**
+     * 加载玩家已接收的最后一封广播ID
+     *
+     * @param playerUUID 玩家UUID
+     * @return 广播水位，从未接收过时返回0，读取失败时返回-1
+     */
+    @Override
+    public long loadBroadcastWatermark(UUID playerUUID) {
+        File playerFile = new File(dataFolder, playerUUID.toString() + ".yml");
+        if (!playerFile.exists()) {
+            return 0;
         }
+        return YamlConfiguration.loadConfiguration(playerFile).getLong(WATERMARK_KEY, 0);
     }
 
     @Override
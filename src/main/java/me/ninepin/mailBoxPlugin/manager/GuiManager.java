@@ -1,18 +1,23 @@
 package me.ninepin.mailBoxPlugin.manager;
 
+import me.ninepin.mailBoxPlugin.enums.MailboxType;
+import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.utils.MailboxUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
-import me.ninepin.mailBoxPlugin.model.MailItem;
-import me.ninepin.mailBoxPlugin.enums.MailboxType;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -21,47 +26,67 @@ import java.util.UUID;
  */
 public class GuiManager {
 
+    /**
+     * 每页显示的邮件数量，多页时最后一行用作翻页控制栏
+     */
+    public static final int PAGE_SIZE = 45;
+    public static final int PREVIOUS_PAGE_SLOT = 45;
+    public static final int PAGE_INFO_SLOT = 49;
+    public static final int NEXT_PAGE_SLOT = 53;
+    public static final int CLAIM_ALL_SLOT = 47;
+
+    /**
+     * 最多缓存多少封邮件的显示物品
+     */
+    private static final int RENDER_CACHE_SIZE = 1024;
+
+    // 显示物品的几种样式，对应不同的操作提示
+    private static final int STYLE_PLAYER = 0;
+    private static final int STYLE_MANAGER = 1;
+    private static final int STYLE_READ_ONLY = 2;
+
     private final MailboxManager mailboxManager;
-    private final SimpleDateFormat dateFormat;
+
+    /**
+     * 邮件ID -> 已生成的显示物品，只在主线程访问
+     * 邮件的物品换了实例即视为内容改变，需要重新生成
+     */
+    private final Map<UUID, RenderedMail> renderCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, RenderedMail> eldest) {
+            return size() > RENDER_CACHE_SIZE;
+        }
+    };
 
     /**
      * 构造函数
      * @param mailboxManager 信箱管理器
-     * @param dateFormat 日期格式化器
      */
-    public GuiManager(MailboxManager mailboxManager, SimpleDateFormat dateFormat) {
+    public GuiManager(MailboxManager mailboxManager) {
         this.mailboxManager = mailboxManager;
-        this.dateFormat = dateFormat;
     }
 
     /**
-     * 打开玩家信箱GUI
+     * 打开玩家信箱GUI的第一页
      * @param player 玩家
      */
     public void openMailboxGUI(Player player) {
+        openMailboxGUI(player, 0);
+    }
+
+    /**
+     * 打开玩家信箱GUI的指定页
+     * 只为当前页的邮件生成显示物品，打开的开销与信箱总大小无关
+     * @param player 玩家
+     * @param page 页码 (从0开始，超出范围时取最近的有效页)
+     */
+    public void openMailboxGUI(Player player, int page) {
         UUID playerUUID = player.getUniqueId();
-        List<MailItem> mails = mailboxManager.getPlayerMailboxes().getOrDefault(playerUUID, new ArrayList<>());
-
-        int size = Math.min(54, ((mails.size() / 9) + 1) * 9);
-        Inventory inv = Bukkit.createInventory(null, size, ChatColor.GOLD + "您的信箱");
-
-        for (int i = 0; i < mails.size() && i < 54; i++) {
-            MailItem mail = mails.get(i);
-            ItemStack itemDisplay = mail.getItem().clone();
-            ItemMeta meta = itemDisplay.getItemMeta();
-            if (meta != null) {
-                List<String> lore = meta.hasLore() ? meta.getLore() : new ArrayList<>();
-                lore.add("");
-                lore.add(ChatColor.GRAY + "收到时间: " + ChatColor.WHITE + dateFormat.format(new Date(mail.getTimestamp())));
-                lore.add(ChatColor.YELLOW + "左键点击领取");
-                meta.setLore(lore);
-                itemDisplay.setItemMeta(meta);
-            }
-            inv.setItem(i, itemDisplay);
-        }
+        MailboxView view = new MailboxView(MailboxType.PLAYER_MAILBOX, playerUUID, player.getName(), false);
+        openView(player, view, page, ChatColor.GOLD + "您的信箱");
 
-        player.openInventory(inv);
-        mailboxManager.getOpenInventories().put(playerUUID, MailboxType.PLAYER_MAILBOX);
+        // 玩家已查看信箱，将邮件标记为已读
+        mailboxManager.markAllRead(playerUUID);
     }
 
     /**
@@ -90,48 +115,241 @@ public class GuiManager {
     }
 
     /**
-     * 打开管理员查看玩家信箱GUI
+     * 打开管理员查看玩家信箱GUI的第一页
      * @param admin 管理员
      * @param targetUUID 目标玩家UUID
      * @param targetName 目标玩家名称
      */
     public void openAdminCheckMailboxGUI(Player admin, UUID targetUUID, String targetName) {
-        // 确保玩家信箱数据已加载
-        mailboxManager.loadPlayerMailbox(targetUUID);
-
-        List<MailItem> mails = mailboxManager.getPlayerMailboxes().getOrDefault(targetUUID, new ArrayList<>());
-
-        int size = Math.min(54, ((mails.size() / 9) + 1) * 9);
+        openAdminCheckMailboxGUI(admin, targetUUID, targetName, 0);
+    }
 
+    /**
+     * 打开管理员查看玩家信箱GUI的指定页
+     * @param admin 管理员
+     * @param targetUUID 目标玩家UUID
+     * @param targetName 目标玩家名称
+     * @param page 页码 (从0开始，超出范围时取最近的有效页)
+     */
+    public void openAdminCheckMailboxGUI(Player admin, UUID targetUUID, String targetName, int page) {
         // 根据权限显示不同的标题和功能
         boolean isManager = admin.hasPermission("mailbox.admin");
         String title = isManager
                 ? ChatColor.RED + targetName + "的信箱 (管理员模式)"
                 : ChatColor.RED + targetName + "的信箱 (只读)";
 
-        Inventory inv = Bukkit.createInventory(null, size, title);
-
-        for (int i = 0; i < mails.size() && i < 54; i++) {
-            MailItem mail = mails.get(i);
-            ItemStack itemDisplay = mail.getItem().clone();
-            ItemMeta meta = itemDisplay.getItemMeta();
-            if (meta != null) {
-                List<String> lore = meta.hasLore() ? meta.getLore() : new ArrayList<>();
-                lore.add("");
-                lore.add(ChatColor.GRAY + "收到时间: " + ChatColor.WHITE + dateFormat.format(new Date(mail.getTimestamp())));
-                if (isManager) {
+        MailboxView view = new MailboxView(MailboxType.ADMIN_CHECK_MAILBOX, targetUUID, targetName, isManager);
+        openView(admin, view, page, title);
+        // 储存当前正在查看的目标玩家
+        mailboxManager.getTargetPlayers().put(admin.getUniqueId(), targetUUID);
+    }
+
+    /**
+     * 更新一个已打开的信箱界面
+     * 只改写内容发生变化的格子，不重新打开界面；邮件多到当前界面放不下时才重新打开
+     * @param viewer 查看者
+     * @param view 信箱界面
+     * @param page 要显示的页码
+     */
+    public void refreshView(Player viewer, MailboxView view, int page) {
+        if (viewer.getOpenInventory().getTopInventory().getHolder() != view) {
+            // 界面已经关闭或换成了其他界面
+            return;
+        }
+        List<MailItem> mails = mailboxManager.getMailbox(view.getOwner());
+        int pages = getPageCount(mails.size());
+        if (getInventorySize(view, mails.size(), pages) > view.getInventory().getSize()) {
+            if (view.getType() == MailboxType.PLAYER_MAILBOX) {
+                openMailboxGUI(viewer, page);
+            } else {
+                openAdminCheckMailboxGUI(viewer, view.getOwner(), view.getOwnerName(), page);
+            }
+            return;
+        }
+
+        fillPage(view, mails, page);
+        if (view.getType() == MailboxType.PLAYER_MAILBOX) {
+            mailboxManager.markAllRead(view.getOwner());
+        }
+    }
+
+    /**
+     * 更新所有正在查看某个信箱的界面，停留在各自的当前页
+     * @param owner 信箱所属玩家UUID
+     */
+    public void refreshViews(UUID owner) {
+        for (Player viewer : Bukkit.getOnlinePlayers()) {
+            InventoryHolder holder = viewer.getOpenInventory().getTopInventory().getHolder();
+            if (holder instanceof MailboxView) {
+                MailboxView view = (MailboxView) holder;
+                if (view.getOwner().equals(owner)) {
+                    refreshView(viewer, view, view.getPage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算信箱的总页数
+     * @param mailCount 邮件数量
+     * @return 总页数，空信箱也有一页
+     */
+    public static int getPageCount(int mailCount) {
+        return Math.max(1, (mailCount + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    /**
+     * 创建界面并打开
+     */
+    private void openView(Player viewer, MailboxView view, int page, String title) {
+        List<MailItem> mails = mailboxManager.getMailbox(view.getOwner());
+        int pages = getPageCount(mails.size());
+
+        Inventory inv = Bukkit.createInventory(view, getInventorySize(view, mails.size(), pages), title);
+        view.setInventory(inv);
+        fillPage(view, mails, page);
+
+        viewer.openInventory(inv);
+        mailboxManager.getOpenInventories().put(viewer.getUniqueId(), view.getType());
+    }
+
+    /**
+     * 将指定页的邮件填入界面，格子中已经是同一封邮件且内容未变时跳过
+     */
+    private void fillPage(MailboxView view, List<MailItem> mails, int page) {
+        Inventory inv = view.getInventory();
+        int pages = getPageCount(mails.size());
+        page = Math.max(0, Math.min(page, pages - 1));
+
+        int style = view.getType() == MailboxType.PLAYER_MAILBOX
+                ? STYLE_PLAYER
+                : view.isManager() ? STYLE_MANAGER : STYLE_READ_ONLY;
+        int offset = page * PAGE_SIZE;
+        int slots = Math.min(PAGE_SIZE, inv.getSize());
+        for (int i = 0; i < slots; i++) {
+            MailItem mail = offset + i < mails.size() ? mails.get(offset + i) : null;
+            UUID mailId = mail != null ? mail.getId() : null;
+            ItemStack source = mail != null ? mail.getItem() : null;
+            // 邮件不可变，内容改变 (合并堆叠、与其他写入方合并、重新载入) 时物品实例也会改变
+            if (Objects.equals(mailId, view.getMailId(i)) && source == view.getSlotSource(i)) {
+                continue;
+            }
+            inv.setItem(i, mail != null ? getDisplayItem(mail, style) : null);
+            view.setSlotMail(i, mailId, source);
+        }
+
+        view.setPage(page);
+        view.setPageCount(pages);
+        updateControls(view, mails.size());
+    }
+
+    /**
+     * 需要控制栏 (多页，或玩家信箱中有可以一键领取的邮件) 时使用大箱子，否则保持原来的紧凑大小
+     */
+    private int getInventorySize(MailboxView view, int mailCount, int pages) {
+        if (pages > 1 || hasClaimAll(view, mailCount)) {
+            return 54;
+        }
+        return Math.min(54, ((mailCount / 9) + 1) * 9);
+    }
+
+    private boolean hasClaimAll(MailboxView view, int mailCount) {
+        return view.getType() == MailboxType.PLAYER_MAILBOX && mailCount > 0;
+    }
+
+    /**
+     * 在最后一行放置翻页按钮、页码信息和一键领取按钮，没有对应功能的格子保持为空
+     */
+    private void updateControls(MailboxView view, int mailCount) {
+        Inventory inv = view.getInventory();
+        if (inv.getSize() < 54) {
+            return;
+        }
+        int page = view.getPage();
+        int pages = view.getPageCount();
+        inv.setItem(PREVIOUS_PAGE_SLOT, page > 0
+                ? createControlItem(Material.ARROW, ChatColor.YELLOW + "上一页")
+                : null);
+        inv.setItem(PAGE_INFO_SLOT, pages > 1 ? createPageInfo(page, pages, mailCount) : null);
+        inv.setItem(NEXT_PAGE_SLOT, page < pages - 1
+                ? createControlItem(Material.ARROW, ChatColor.YELLOW + "下一页")
+                : null);
+        inv.setItem(CLAIM_ALL_SLOT, hasClaimAll(view, mailCount)
+                ? createControlItem(Material.HOPPER, ChatColor.GREEN + "一键领取",
+                        ChatColor.GRAY + "领取所有能放入背包的物品")
+                : null);
+    }
+
+    private ItemStack createPageInfo(int page, int pages, int mailCount) {
+        return createControlItem(Material.PAPER,
+                ChatColor.GOLD + "第 " + (page + 1) + "/" + pages + " 页",
+                ChatColor.GRAY + "共 " + mailCount + " 封邮件");
+    }
+
+    private ItemStack createControlItem(Material material, String name, String... lore) {
+        ItemStack item = new ItemStack(material);
+        ItemMeta meta = item.getItemMeta();
+        if (meta != null) {
+            meta.setDisplayName(name);
+            if (lore.length > 0) {
+                meta.setLore(Arrays.asList(lore));
+            }
+            item.setItemMeta(meta);
+        }
+        return item;
+    }
+
+    /**
+     * 获取邮件的显示物品，缓存中没有或邮件内容已改变时重新生成
+     */
+    private ItemStack getDisplayItem(MailItem mail, int style) {
+        RenderedMail rendered = renderCache.get(mail.getId());
+        if (rendered == null || rendered.source != mail.getItem()) {
+            rendered = new RenderedMail(mail.getItem());
+            renderCache.put(mail.getId(), rendered);
+        }
+        if (rendered.displays[style] == null) {
+            rendered.displays[style] = createMailDisplay(mail, style);
+        }
+        return rendered.displays[style];
+    }
+
+    /**
+     * 生成邮件的显示物品，在原有描述后附加收到时间和操作提示
+     */
+    private ItemStack createMailDisplay(MailItem mail, int style) {
+        ItemStack itemDisplay = mail.getItem().clone();
+        ItemMeta meta = itemDisplay.getItemMeta();
+        if (meta != null) {
+            List<String> lore = meta.hasLore() ? meta.getLore() : new ArrayList<>();
+            lore.add("");
+            lore.add(ChatColor.GRAY + "收到时间: " + ChatColor.WHITE + MailboxUtils.formatTimestamp(mail.getTimestamp()));
+            switch (style) {
+                case STYLE_PLAYER:
+                    lore.add(ChatColor.YELLOW + "左键点击领取");
+                    break;
+                case STYLE_MANAGER:
                     lore.add(ChatColor.YELLOW + "左键点击领取物品的复制品");
                     lore.add(ChatColor.RED + "Shift+右键点击删除此物品");
-                }
-                meta.setLore(lore);
-                itemDisplay.setItemMeta(meta);
+                    break;
+                default:
+                    break;
             }
-            inv.setItem(i, itemDisplay);
+            meta.setLore(lore);
+            itemDisplay.setItemMeta(meta);
         }
+        return itemDisplay;
+    }
 
-        admin.openInventory(inv);
-        mailboxManager.getOpenInventories().put(admin.getUniqueId(), MailboxType.ADMIN_CHECK_MAILBOX);
-        // 储存当前正在查看的目标玩家
-        mailboxManager.getTargetPlayers().put(admin.getUniqueId(), targetUUID);
+    /**
+     * 一封邮件已生成的各种样式的显示物品
+     */
+    private static class RenderedMail {
+        final ItemStack source;
+        final ItemStack[] displays = new ItemStack[3];
+
+        RenderedMail(ItemStack source) {
+            this.source = source;
+        }
     }
-}
\ No newline at end of file
+}
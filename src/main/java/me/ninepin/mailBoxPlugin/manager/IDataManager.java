@@ -1,15 +1,70 @@
 package me.ninepin.mailBoxPlugin.manager;
 
+import me.ninepin.mailBoxPlugin.enums.ClaimResult;
+import me.ninepin.mailBoxPlugin.model.BroadcastMail;
 import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailStatistics;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import me.ninepin.mailBoxPlugin.model.MailboxSaveResult;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public interface IDataManager {
     Map<UUID, List<MailItem>> loadAllMailboxes();
+
+    /**
+     * 读取玩家的邮件
+     *
+     * @return 邮件列表，信箱不存在时返回空列表
+     * @throws IllegalStateException 读取存储失败时抛出，不能当作空信箱处理
+     */
     List<MailItem> loadPlayerMailbox(UUID playerUUID);
-    void savePlayerMailbox(UUID playerUUID, List<MailItem> mailItems);
-    void saveAllMailboxes(Map<UUID, List<MailItem>> playerMailboxes);
+
+    Set<UUID> loadMailboxOwners();
+    MailStatistics loadMailStatistics();
+    Set<UUID> findOversizedMailboxes(int maxMails);
+    long loadMailboxVersion(UUID playerUUID);
+    MailboxSaveResult saveMailbox(UUID playerUUID, List<MailItem> base, long baseVersion, List<MailItem> mailItems);
+    boolean appendMail(UUID playerUUID, MailItem mail);
+    boolean removeMail(UUID playerUUID, UUID mailId);
+    ClaimResult claimMail(UUID playerUUID, UUID mailId);
+
+    /**
+     * 以一次原子写入删除仍在存储中的邮件
+     *
+     * @return 本次实际删除的邮件ID，失败时返回null (此时没有任何邮件被删除)
+     */
+    Set<UUID> claimMails(UUID playerUUID, Collection<UUID> mailIds);
+    boolean markRead(UUID playerUUID, Collection<UUID> mailIds);
+    boolean updateMail(UUID playerUUID, MailItem mail);
+
+    /**
+     * 以一次写入应用变更集
+     *
+     * @return 写入后存储中的信箱版本，失败时返回-1
+     */
+    long applyChanges(UUID playerUUID, MailboxChangeSet changes);
+
+    int purgeUnusedItems();
+    void setMailExpiry(long expireAfterMillis);
+
+    /**
+     * 删除一批过期邮件，并为受影响的信箱推进版本、记录变更
+     *
+     * @return 删除的邮件数量 (totalMails)，以及因此不再有任何邮件的信箱数量 (playersWithMail)
+     */
+    MailStatistics deleteExpiredMails(long cutoff, int limit);
+
+    boolean supportsRemoteChanges();
+    Set<UUID> pollRemoteChanges();
+    long saveBroadcast(ItemStack item, long timestamp);
+    List<BroadcastMail> loadBroadcasts();
+    long loadBroadcastWatermark(UUID playerUUID);
     void initialize();
     void close();
 }
\ No newline at end of file
@@ -0,0 +1,516 @@
+package me.ninepin.mailBoxPlugin.manager;
+
+import me.ninepin.mailBoxPlugin.database.MailJournal;
+import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import me.ninepin.mailBoxPlugin.model.PlayerMailbox;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 异步写入队列
+ * 信箱修改先进入队列，由专用写入线程合并同一信箱的多次修改后批量写入存储
+ * 启用预写日志时，修改在进入队列前先记入日志，写入存储后推进日志检查点
+ */
+public class MailWriteQueue {
+
+    private final IDataManager dataManager;
+    private final Logger logger;
+    private final int batchSize;
+    private final ScheduledExecutorService writer;
+    private final MailJournal journal;
+
+    private final Map<UUID, PendingMailbox> pending = new LinkedHashMap<>();
+    private final Object lock = new Object();
+    private int pendingOperations;
+    private long inFlightSeq = Long.MAX_VALUE;
+    // 已从队列取出、正在写入的信箱
+    private final Set<UUID> inFlight = new HashSet<>();
+    private final Map<UUID, Long> failedSince = new HashMap<>();
+
+    private final AtomicLong flushedMailboxes = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long lastFlushLatencyMillis;
+    private volatile double averageFlushLatencyMillis;
+
+    /**
+     * 构造函数
+     *
+     * @param dataManager     数据管理器
+     * @param logger          日志记录器
+     * @param flushIntervalMs 写入线程检查队列的间隔 (毫秒)
+     * @param batchSize       每批最多写入的信箱数量
+     * @param journal         预写日志，为null时不记录日志
+     */
+    public MailWriteQueue(IDataManager dataManager, Logger logger, long flushIntervalMs, int batchSize,
+                          MailJournal journal) {
+        this.dataManager = dataManager;
+        this.journal = journal;
+        this.logger = logger;
+        this.batchSize = Math.max(1, batchSize);
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MailboxPlugin-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(10L, flushIntervalMs);
+        this.writer.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 将新增邮件加入写入队列
+     */
+    public void enqueueAppend(PlayerMailbox mailbox, long version, MailItem mail) {
+        synchronized (lock) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.getAppended().add(mail);
+            long seq = journal(mailbox, changes);
+            enqueue(mailbox, version, seq, mail.getId(), new Operation(OperationType.APPEND, mail));
+        }
+    }
+
+    /**
+     * 将删除邮件加入写入队列
+     */
+    public void enqueueRemove(PlayerMailbox mailbox, long version, UUID mailId) {
+        synchronized (lock) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.getRemoved().add(mailId);
+            long seq = journal(mailbox, changes);
+            enqueue(mailbox, version, seq, mailId, new Operation(OperationType.REMOVE, null));
+        }
+    }
+
+    /**
+     * 将一批删除作为一次修改加入写入队列 (只记一条日志，批量写入存储)
+     */
+    public void enqueueRemoveAll(PlayerMailbox mailbox, long version, Collection<UUID> mailIds) {
+        synchronized (lock) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.getRemoved().addAll(mailIds);
+            long seq = journal(mailbox, changes);
+            for (UUID mailId : mailIds) {
+                enqueue(mailbox, version, seq, mailId, new Operation(OperationType.REMOVE, null));
+            }
+        }
+    }
+
+    /**
+     * 将标记已读加入写入队列
+     */
+    public void enqueueRead(PlayerMailbox mailbox, long version, Collection<UUID> mailIds) {
+        synchronized (lock) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.getRead().addAll(mailIds);
+            long seq = journal(mailbox, changes);
+            for (UUID mailId : mailIds) {
+                enqueue(mailbox, version, seq, mailId, new Operation(OperationType.READ, null));
+            }
+        }
+    }
+
+    /**
+     * 将邮件内容更新加入写入队列
+     */
+    public void enqueueUpdate(PlayerMailbox mailbox, long version, MailItem mail) {
+        synchronized (lock) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.getUpdated().add(mail);
+            long seq = journal(mailbox, changes);
+            enqueue(mailbox, version, seq, mail.getId(), new Operation(OperationType.UPDATE, mail));
+        }
+    }
+
+    /**
+     * 将广播水位更新加入写入队列
+     */
+    public void enqueueWatermark(PlayerMailbox mailbox, long version, long watermark) {
+        synchronized (lock) {
+            MailboxChangeSet changes = new MailboxChangeSet();
+            changes.setBroadcastWatermark(watermark);
+            long seq = journal(mailbox, changes);
+            PendingMailbox entry = entryFor(mailbox, version, seq);
+            entry.watermark = Math.max(entry.watermark, watermark);
+        }
+    }
+
+    /**
+     * 将修改记入预写日志
+     *
+     * @return 日志序号，未启用日志时返回0
+     */
+    private long journal(PlayerMailbox mailbox, MailboxChangeSet changes) {
+        if (journal == null) {
+            return 0;
+        }
+        long seq = journal.append(mailbox.getOwner(), changes);
+        if (seq < 0) {
+            logger.warning("信箱修改未能记入预写日志: " + mailbox.getOwner());
+        }
+        return seq;
+    }
+
+    private PendingMailbox entryFor(PlayerMailbox mailbox, long version, long seq) {
+        PendingMailbox entry = pending.get(mailbox.getOwner());
+        if (entry == null) {
+            entry = new PendingMailbox(mailbox, version - 1);
+            pending.put(mailbox.getOwner(), entry);
+        }
+        entry.version = version;
+        if (seq > 0) {
+            entry.firstSeq = Math.min(entry.firstSeq, seq);
+        }
+        return entry;
+    }
+
+    private void enqueue(PlayerMailbox mailbox, long version, long seq, UUID mailId, Operation operation) {
+        synchronized (lock) {
+            PendingMailbox entry = entryFor(mailbox, version, seq);
+
+            int before = entry.operations.size();
+            Operation previous = entry.operations.get(mailId);
+            Operation merged = previous == null ? operation : coalesce(previous, operation);
+            if (merged == null) {
+                entry.operations.remove(mailId);
+            } else {
+                entry.operations.put(mailId, merged);
+            }
+            pendingOperations += entry.operations.size() - before;
+        }
+    }
+
+    /**
+     * 合并同一封邮件的两次修改
+     *
+     * @return 合并后的修改，返回null表示两次修改相互抵消
+     */
+    private Operation coalesce(Operation previous, Operation next) {
+        switch (next.type) {
+            case REMOVE:
+                // 尚未写入的新邮件被删除，无需访问存储
+                return previous.type == OperationType.APPEND ? null : next;
+            case READ:
+                // 新增和更新直接写入已读的邮件，已删除的邮件无需再标记
+                if (previous.type == OperationType.APPEND || previous.type == OperationType.UPDATE) {
+                    return new Operation(previous.type, previous.mail.asRead());
+                }
+                return previous;
+            case UPDATE:
+                return previous.type == OperationType.APPEND
+                        ? new Operation(OperationType.APPEND, next.mail)
+                        : next;
+            default:
+                return next;
+        }
+    }
+
+    /**
+     * 检查指定信箱是否有尚未写入的修改
+     *
+     * @param playerUUID 玩家UUID
+     * @return 是否有待写入的修改
+     */
+    public boolean hasPending(UUID playerUUID) {
+        synchronized (lock) {
+            return pending.containsKey(playerUUID);
+        }
+    }
+
+    /**
+     * 检查指定信箱是否有尚未写入存储的修改，包括队列中、正在写入和写入失败的修改
+     *
+     * @param playerUUID 玩家UUID
+     * @return 存储中是否可能缺少该信箱的修改
+     */
+    public boolean hasUnwritten(UUID playerUUID) {
+        synchronized (lock) {
+            return pending.containsKey(playerUUID) || inFlight.contains(playerUUID) || failedSince.containsKey(playerUUID);
+        }
+    }
+
+    /**
+     * 在写入线程上执行任务，与队列写入串行执行
+     *
+     * @param task 任务
+     */
+    public void submit(Runnable task) {
+        writer.execute(task);
+    }
+
+    /**
+     * 立即写入指定信箱在队列中的修改，必须在写入线程上调用
+     * 用于需要直接访问存储的操作 (如领取邮件) 之前，保证存储中已包含此前的所有修改
+     *
+     * @param playerUUID 玩家UUID
+     * @return 信箱的修改是否都已写入存储
+     */
+    public boolean flushPending(UUID playerUUID) {
+        PendingMailbox entry;
+        synchronized (lock) {
+            entry = pending.remove(playerUUID);
+            if (entry == null) {
+                return !failedSince.containsKey(playerUUID);
+            }
+            pendingOperations -= entry.operations.size();
+            inFlightSeq = Math.min(inFlightSeq, entry.firstSeq);
+            inFlight.add(playerUUID);
+        }
+        boolean flushed = false;
+        int done = 0;
+        try {
+            flushed = flush(entry);
+            done = 1;
+        } finally {
+            finishBatch(Collections.singletonList(entry), done);
+        }
+        return flushed;
+    }
+
+    /**
+     * 立即写入队列中所有待写入的修改，必须在写入线程上调用
+     * 用于直接修改存储的批量操作 (如清理过期邮件) 之前，保证队列中的修改不会与其重复
+     */
+    public void flushAll() {
+        drain();
+    }
+
+    /**
+     * 写入队列中所有待写入的修改
+     */
+    private void drain() {
+        try {
+            List<PendingMailbox> batch;
+            do {
+                batch = new ArrayList<>(batchSize);
+                synchronized (lock) {
+                    Iterator<PendingMailbox> iterator = pending.values().iterator();
+                    while (iterator.hasNext() && batch.size() < batchSize) {
+                        PendingMailbox entry = iterator.next();
+                        iterator.remove();
+                        pendingOperations -= entry.operations.size();
+                        inFlightSeq = Math.min(inFlightSeq, entry.firstSeq);
+                        inFlight.add(entry.mailbox.getOwner());
+                        batch.add(entry);
+                    }
+                }
+                int done = 0;
+                try {
+                    for (PendingMailbox entry : batch) {
+                        flush(entry);
+                        done++;
+                    }
+                } finally {
+                    finishBatch(batch, done);
+                }
+            } while (batch.size() == batchSize);
+        } catch (Exception e) {
+            logger.severe("写入信箱队列时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 结束一批写入：未能执行到的信箱按写入失败处理 (保留其日志，由自动保存整体重写)，推进日志检查点后清除正在写入的标记
+     * 检查点先于标记清除，信箱显示为已写入 (可以直接领取) 时，重放已不会再加回这批修改中的邮件
+     *
+     * @param batch 这批信箱
+     * @param done  已执行写入的信箱数量
+     */
+    private void finishBatch(List<PendingMailbox> batch, int done) {
+        synchronized (lock) {
+            for (PendingMailbox entry : batch.subList(done, batch.size())) {
+                failedSince.merge(entry.mailbox.getOwner(), entry.firstSeq, Math::min);
+            }
+            inFlightSeq = Long.MAX_VALUE;
+        }
+        try {
+            checkpoint();
+        } finally {
+            synchronized (lock) {
+                inFlight.clear();
+            }
+        }
+    }
+
+    private boolean flush(PendingMailbox entry) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.setBroadcastWatermark(entry.watermark);
+        for (Map.Entry<UUID, Operation> op : entry.operations.entrySet()) {
+            switch (op.getValue().type) {
+                case APPEND:
+                    changes.getAppended().add(op.getValue().mail);
+                    break;
+                case UPDATE:
+                    changes.getUpdated().add(op.getValue().mail);
+                    break;
+                case REMOVE:
+                    changes.getRemoved().add(op.getKey());
+                    break;
+                case READ:
+                    changes.getRead().add(op.getKey());
+                    break;
+            }
+        }
+
+        long storedVersion;
+        try {
+            storedVersion = dataManager.applyChanges(entry.mailbox.getOwner(), changes);
+        } catch (RuntimeException e) {
+            // 按写入失败处理，不影响同一批中的其他信箱
+            logger.severe("写入信箱时出错: " + entry.mailbox.getOwner() + " - " + e.getMessage());
+            storedVersion = -1;
+        }
+        boolean written = storedVersion >= 0;
+        if (written) {
+            entry.mailbox.commitWrite(entry.baseVersion, entry.version, changes, storedVersion);
+            flushedMailboxes.incrementAndGet();
+            flushedRows.addAndGet(changes.size());
+        } else {
+            // 写入失败的信箱保持脏标记，由自动保存整体重写，在此之前保留其日志
+            failedFlushes.incrementAndGet();
+            synchronized (lock) {
+                failedSince.merge(entry.mailbox.getOwner(), entry.firstSeq, Math::min);
+            }
+        }
+
+        long latency = System.currentTimeMillis() - entry.enqueuedAt;
+        lastFlushLatencyMillis = latency;
+        averageFlushLatencyMillis = averageFlushLatencyMillis * 0.9 + latency * 0.1;
+        return written;
+    }
+
+    /**
+     * 计算已写入存储的最大连续日志序号并推进日志检查点
+     */
+    private void checkpoint() {
+        if (journal == null) {
+            return;
+        }
+        journal.checkpoint(getAppliedSeq());
+    }
+
+    /**
+     * 获取已写入存储的最大连续日志序号
+     * 队列中、正在写入和写入失败的修改中最小的序号之前的所有修改都已写入
+     *
+     * @return 日志序号
+     */
+    public long getAppliedSeq() {
+        if (journal == null) {
+            return 0;
+        }
+        synchronized (lock) {
+            long unapplied = inFlightSeq;
+            for (PendingMailbox entry : pending.values()) {
+                unapplied = Math.min(unapplied, entry.firstSeq);
+            }
+            for (long seq : failedSince.values()) {
+                unapplied = Math.min(unapplied, seq);
+            }
+            return unapplied == Long.MAX_VALUE ? journal.getLastSeq() : unapplied - 1;
+        }
+    }
+
+    /**
+     * 记录信箱已被整体保存，之前写入失败的修改不再需要保留日志
+     *
+     * @param playerUUID 玩家UUID
+     */
+    public void markSaved(UUID playerUUID) {
+        synchronized (lock) {
+            failedSince.remove(playerUUID);
+        }
+    }
+
+    /**
+     * 停止写入线程，并写入队列中剩余的所有修改
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warning("等待写入线程结束超时");
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+
+    /**
+     * 获取队列中待写入的修改数量
+     *
+     * @return 队列深度
+     */
+    public int getDepth() {
+        synchronized (lock) {
+            return pendingOperations;
+        }
+    }
+
+    /**
+     * 获取队列中待写入的信箱数量
+     *
+     * @return 待写入信箱数量
+     */
+    public int getPendingMailboxes() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long getFlushedMailboxes() {
+        return flushedMailboxes.get();
+    }
+
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public long getLastFlushLatencyMillis() {
+        return lastFlushLatencyMillis;
+    }
+
+    public double getAverageFlushLatencyMillis() {
+        return averageFlushLatencyMillis;
+    }
+
+    private enum OperationType {
+        APPEND, UPDATE, REMOVE, READ
+    }
+
+    private static class Operation {
+        private final OperationType type;
+        private final MailItem mail;
+
+        private Operation(OperationType type, MailItem mail) {
+            this.type = type;
+            this.mail = mail;
+        }
+    }
+
+    private static class PendingMailbox {
+        private final PlayerMailbox mailbox;
+        private final long baseVersion;
+        private final long enqueuedAt = System.currentTimeMillis();
+        private final Map<UUID, Operation> operations = new LinkedHashMap<>();
+        private long version;
+        private long watermark = -1;
+        private long firstSeq = Long.MAX_VALUE;
+
+        private PendingMailbox(PlayerMailbox mailbox, long baseVersion) {
+            this.mailbox = mailbox;
+            this.baseVersion = baseVersion;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package me.ninepin.mailBoxPlugin.manager;
+
+import me.ninepin.mailBoxPlugin.enums.CacheMode;
+import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.PlayerMailbox;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 信箱缓存
+ * 负责信箱的按需载入、容量限制和闲置淘汰
+ */
+public class MailboxCache {
+
+    private final IDataManager dataManager;
+    private final CacheMode mode;
+    private final int maxSize;
+    private final long expireAfterMillis;
+
+    private final Map<UUID, PlayerMailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<PlayerMailbox>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private Predicate<PlayerMailbox> evictionGuard = mailbox -> true;
+
+    /**
+     * 构造函数
+     *
+     * @param dataManager       数据管理器
+     * @param mode              缓存模式
+     * @param maxSize           最大缓存信箱数量
+     * @param expireAfterMillis 离线信箱闲置淘汰时间 (毫秒)
+     */
+    public MailboxCache(IDataManager dataManager, CacheMode mode, int maxSize, long expireAfterMillis) {
+        this.dataManager = dataManager;
+        this.mode = mode;
+        this.maxSize = Math.max(1, maxSize);
+        this.expireAfterMillis = expireAfterMillis;
+    }
+
+    /**
+     * 设置淘汰检查条件，只有返回 true 的信箱才允许被淘汰
+     *
+     * @param evictionGuard 淘汰检查条件
+     */
+    public void setEvictionGuard(Predicate<PlayerMailbox> evictionGuard) {
+        this.evictionGuard = evictionGuard;
+    }
+
+    /**
+     * 载入所有信箱 (仅在 FULL 模式下使用)
+     */
+    public void loadAll() {
+        for (Map.Entry<UUID, List<MailItem>> entry : dataManager.loadAllMailboxes().entrySet()) {
+            mailboxes.put(entry.getKey(), new PlayerMailbox(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * 获取玩家信箱，未缓存时从存储中载入
+     *
+     * @param playerUUID 玩家UUID
+     * @return 玩家信箱
+     */
+    public PlayerMailbox get(UUID playerUUID) {
+        PlayerMailbox mailbox = mailboxes.get(playerUUID);
+        if (mailbox != null) {
+            hits.incrementAndGet();
+            mailbox.touch();
+            return mailbox;
+        }
+
+        misses.incrementAndGet();
+        // 已有异步载入进行中时共用其结果，不重复读取
+        CompletableFuture<PlayerMailbox> pending = loading.get(playerUUID);
+        return pending != null ? pending.join() : load(playerUUID);
+    }
+
+    /**
+     * 从存储载入信箱并放入缓存
+     * 在映射函数之外读取存储，读取期间不占用缓存的锁；并发载入同一信箱时以先放入的为准
+     */
+    private PlayerMailbox load(UUID playerUUID) {
+        // 先读取版本再读取邮件，期间的写入会在保存时被发现并合并
+        long storedVersion = dataManager.loadMailboxVersion(playerUUID);
+        PlayerMailbox loaded = new PlayerMailbox(playerUUID, dataManager.loadPlayerMailbox(playerUUID), storedVersion);
+        PlayerMailbox existing = mailboxes.putIfAbsent(playerUUID, loaded);
+        PlayerMailbox mailbox = existing != null ? existing : loaded;
+        mailbox.touch();
+
+        if (mode == CacheMode.LAZY && mailboxes.size() > maxSize) {
+            evictToSize(maxSize - maxSize / 10);
+        }
+        return mailbox;
+    }
+
+    /**
+     * 异步获取玩家信箱，未缓存时在指定的线程池中从存储载入
+     * 同一信箱同时只会有一次载入，并发的请求共用同一个结果
+     *
+     * @param playerUUID 玩家UUID
+     * @param executor   执行载入的线程池
+     * @return 载入完成的信箱
+     */
+    public CompletableFuture<PlayerMailbox> getAsync(UUID playerUUID, Executor executor) {
+        PlayerMailbox mailbox = mailboxes.get(playerUUID);
+        if (mailbox != null) {
+            hits.incrementAndGet();
+            mailbox.touch();
+            return CompletableFuture.completedFuture(mailbox);
+        }
+
+        CompletableFuture<PlayerMailbox> created = new CompletableFuture<>();
+        CompletableFuture<PlayerMailbox> existing = loading.putIfAbsent(playerUUID, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    PlayerMailbox loaded = mailboxes.get(playerUUID);
+                    if (loaded != null) {
+                        hits.incrementAndGet();
+                        loaded.touch();
+                    } else {
+                        misses.incrementAndGet();
+                        loaded = load(playerUUID);
+                    }
+                    // 先移除再完成，之后的请求直接命中缓存
+                    loading.remove(playerUUID, created);
+                    created.complete(loaded);
+                } catch (Throwable t) {
+                    loading.remove(playerUUID, created);
+                    created.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(playerUUID, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * 获取已缓存的玩家信箱，不会触发载入
+     *
+     * @param playerUUID 玩家UUID
+     * @return 玩家信箱，未缓存时返回null
+     */
+    public PlayerMailbox getIfPresent(UUID playerUUID) {
+        return mailboxes.get(playerUUID);
+    }
+
+    /**
+     * 检查信箱是否已缓存
+     *
+     * @param playerUUID 玩家UUID
+     * @return 是否已缓存
+     */
+    public boolean contains(UUID playerUUID) {
+        return mailboxes.containsKey(playerUUID);
+    }
+
+    /**
+     * 淘汰闲置过久或超出容量的信箱
+     *
+     * @return 本次淘汰的信箱数量
+     */
+    public int cleanUp() {
+        if (mode != CacheMode.LAZY) {
+            return 0;
+        }
+
+        int evicted = 0;
+        long deadline = System.currentTimeMillis() - expireAfterMillis;
+        Iterator<PlayerMailbox> iterator = mailboxes.values().iterator();
+        while (iterator.hasNext()) {
+            PlayerMailbox mailbox = iterator.next();
+            if (mailbox.getLastAccess() < deadline && evictionGuard.test(mailbox)) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+        evictions.addAndGet(evicted);
+
+        if (mailboxes.size() > maxSize) {
+            evicted += evictToSize(maxSize);
+        }
+        return evicted;
+    }
+
+    /**
+     * 按最后访问时间淘汰信箱，直到缓存数量不超过目标值
+     *
+     * @param targetSize 目标缓存数量
+     * @return 淘汰的信箱数量
+     */
+    private int evictToSize(int targetSize) {
+        List<PlayerMailbox> candidates = new ArrayList<>();
+        for (PlayerMailbox mailbox : mailboxes.values()) {
+            if (evictionGuard.test(mailbox)) {
+                candidates.add(mailbox);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(PlayerMailbox::getLastAccess));
+
+        int evicted = 0;
+        for (PlayerMailbox mailbox : candidates) {
+            if (mailboxes.size() <= targetSize) {
+                break;
+            }
+            if (mailboxes.remove(mailbox.getOwner(), mailbox)) {
+                evicted++;
+            }
+        }
+        evictions.addAndGet(evicted);
+        return evicted;
+    }
+
+    /**
+     * 获取所有已缓存的信箱
+     *
+     * @return 信箱集合
+     */
+    public Collection<PlayerMailbox> values() {
+        return Collections.unmodifiableCollection(mailboxes.values());
+    }
+
+    /**
+     * 获取所有已缓存的玩家UUID
+     *
+     * @return 玩家UUID集合
+     */
+    public Set<UUID> keySet() {
+        return Collections.unmodifiableSet(mailboxes.keySet());
+    }
+
+    public CacheMode getMode() {
+        return mode;
+    }
+
+    public int size() {
+        return mailboxes.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
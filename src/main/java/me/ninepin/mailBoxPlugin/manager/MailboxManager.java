@@ -1,17 +1,45 @@
 package me.ninepin.mailBoxPlugin.manager;
 
+import me.ninepin.mailBoxPlugin.database.MailJournal;
 import me.ninepin.mailBoxPlugin.database.MySQLDataManager;
+import me.ninepin.mailBoxPlugin.database.SegmentLogDataManager;
+import me.ninepin.mailBoxPlugin.enums.CacheMode;
+import me.ninepin.mailBoxPlugin.enums.ClaimResult;
 import me.ninepin.mailBoxPlugin.enums.MailboxType;
+import me.ninepin.mailBoxPlugin.enums.OverflowPolicy;
+import me.ninepin.mailBoxPlugin.model.BroadcastMail;
 import me.ninepin.mailBoxPlugin.model.MailItem;
+import me.ninepin.mailBoxPlugin.model.MailStatistics;
+import me.ninepin.mailBoxPlugin.model.MailboxChangeSet;
+import me.ninepin.mailBoxPlugin.model.MailboxSaveResult;
+import me.ninepin.mailBoxPlugin.model.MailboxSnapshot;
+import me.ninepin.mailBoxPlugin.model.MailboxSummary;
+import me.ninepin.mailBoxPlugin.model.PlayerMailbox;
+import me.ninepin.mailBoxPlugin.utils.MailboxUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.text.SimpleDateFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * 信箱管理器
@@ -22,11 +50,38 @@ public class MailboxManager {
     private final JavaPlugin plugin;
     private final IDataManager dataManager;
     private final GuiManager guiManager;
+    private final MailboxCache cache;
+    private final MailWriteQueue writeQueue;
+    private final AutoSaveScheduler autoSave;
+    private final MailJournal journal;
+    private final PlayerNameIndex nameIndex;
+    private final long mailExpireMillis;
+    private final int expireBatchSize;
+    private final long expireBatchDelayTicks;
+    private final AtomicBoolean expiring = new AtomicBoolean();
+    private final AtomicBoolean pollingRemote = new AtomicBoolean();
+    // 收到其他服务器的修改时本地仍有未写入修改的信箱，等本地修改写入后再重新载入
+    private final Set<UUID> staleMailboxes = ConcurrentHashMap.newKeySet();
+    private final int maxMails;
+    private final OverflowPolicy overflowPolicy;
+    // 正在领取中的邮件ID，领取完成前重复点击会被忽略
+    private final Set<UUID> claiming = ConcurrentHashMap.newKeySet();
+    private final ExecutorService loader;
+    private final ExecutorService claimer;
+    // 玩家UUID -> 登录前开始的信箱载入，玩家进入服务器时取用
+    private final Map<UUID, CompletableFuture<PlayerMailbox>> prefetches = new ConcurrentHashMap<>();
+    private final List<BroadcastMail> broadcasts = new CopyOnWriteArrayList<>();
+    private volatile long latestBroadcastId;
 
-    private Map<UUID, List<MailItem>> playerMailboxes = new HashMap<>();
-    private Map<UUID, MailboxType> openInventories = new HashMap<>();
-    private Map<UUID, UUID> targetPlayers = new HashMap<>();
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // 全服统计 = 启动时从存储读取的基准值 + 之后所有修改的增量
+    private volatile MailStatistics statisticsBaseline = new MailStatistics(0, 0);
+    // 统计基准载入时的过期时间点，早于该时间的邮件不在基准中
+    private volatile long statisticsCutoff = Long.MIN_VALUE;
+    private final AtomicLong totalMailsDelta = new AtomicLong();
+    private final AtomicInteger playersWithMailDelta = new AtomicInteger();
+
+    private final Map<UUID, MailboxType> openInventories = new ConcurrentHashMap<>();
+    private final Map<UUID, UUID> targetPlayers = new ConcurrentHashMap<>();
 
     /**
      * 构造函数
@@ -38,17 +93,427 @@ public class MailboxManager {
         String storageType = plugin.getConfig().getString("storage.type", "file");
         if ("mysql".equalsIgnoreCase(storageType)) {
             this.dataManager = new MySQLDataManager(plugin);
+        } else if ("log".equalsIgnoreCase(storageType)) {
+            // 段日誌需要明確選用，file 和 yaml 仍使用原本的 YAML 文件
+            this.dataManager = new SegmentLogDataManager(plugin);
         } else {
             this.dataManager = new DataManager(plugin);
         }
 
+        // 郵件保存天數，過期的郵件不會再被讀取
+        FileConfiguration config = plugin.getConfig();
+        long expireDays = config.getLong("mailbox.mail-expire-days", 30);
+        this.mailExpireMillis = expireDays > 0 ? expireDays * 24L * 60L * 60L * 1000L : -1;
+        this.expireBatchSize = Math.max(1, config.getInt("mailbox.expiration.delete-batch-size", 500));
+        this.expireBatchDelayTicks = Math.max(1L, config.getLong("mailbox.expiration.delete-batch-delay-ms", 250) / 50L);
+        this.dataManager.setMailExpiry(mailExpireMillis);
+
+        // 每個玩家的郵件數量上限，以及信箱已滿時新郵件的處理方式
+        this.maxMails = config.getInt("mailbox.max-mails-per-player", 100);
+        this.overflowPolicy = OverflowPolicy.fromConfig(config.getString("mailbox.overflow-policy", "reject"));
+
         // 初始化資料管理器
         this.dataManager.initialize();
 
-        this.guiManager = new GuiManager(this, dateFormat);
+        this.guiManager = new GuiManager(this);
+
+        // 初始化預寫日誌，並補寫上次崩潰前尚未寫入存儲的修改
+        MailJournal mailJournal = null;
+        if (config.getBoolean("mailbox.journal.enabled", true)) {
+            mailJournal = new MailJournal(new File(plugin.getDataFolder(), "journal"), plugin.getLogger(),
+                    config.getLong("mailbox.journal.group-commit-ms", 10),
+                    config.getLong("mailbox.journal.max-file-size-mb", 16) * 1024L * 1024L);
+            try {
+                mailJournal.replay(dataManager);
+            } catch (IOException e) {
+                plugin.getLogger().severe("重放信箱日誌時出錯，本次運行停用預寫日誌: " + e.getMessage());
+                mailJournal.close(-1);
+                mailJournal = null;
+            }
+        }
+        this.journal = mailJournal;
+
+        // 初始化信箱緩存
+        this.cache = new MailboxCache(dataManager,
+                CacheMode.fromConfig(config.getString("mailbox.cache.mode", "lazy")),
+                config.getInt("mailbox.cache.max-size", 5000),
+                config.getLong("mailbox.cache.expire-after-minutes", 30) * 60_000L);
+        this.cache.setEvictionGuard(this::canEvict);
+
+        // 初始化信箱載入線程，離線玩家的信箱在這些線程上從存儲讀取
+        int loaderThreads = Math.max(1, config.getInt("mailbox.cache.loader-threads", 2));
+        AtomicInteger loaderCount = new AtomicInteger();
+        this.loader = Executors.newFixedThreadPool(loaderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "MailboxPlugin-Loader-" + loaderCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // 初始化領取線程，領取時的條件刪除不必排在寫入隊列之後
+        int claimThreads = Math.max(1, config.getInt("mailbox.write-behind.claim-threads", 2));
+        AtomicInteger claimerCount = new AtomicInteger();
+        this.claimer = Executors.newFixedThreadPool(claimThreads, runnable -> {
+            Thread thread = new Thread(runnable, "MailboxPlugin-Claim-" + claimerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // 初始化異步寫入隊列
+        this.writeQueue = new MailWriteQueue(dataManager, plugin.getLogger(),
+                config.getLong("mailbox.write-behind.flush-interval-ms", 100),
+                config.getInt("mailbox.write-behind.batch-size", 200), journal);
+
+        // 初始化分批自動保存，有修改的信箱按 UUID 分片在保存間隔內依次寫入
+        this.autoSave = new AutoSaveScheduler(this, cache, writeQueue, plugin.getLogger(),
+                config.getLong("mailbox.auto-save-interval", 5),
+                config.getInt("mailbox.auto-save.shards", 60),
+                config.getDouble("mailbox.auto-save.min-rows-per-second", 50),
+                config.getDouble("mailbox.auto-save.max-rows-per-second", 2000),
+                config.getLong("mailbox.auto-save.latency-target-ms", 50));
+
+        // FULL 模式下加載所有玩家的信箱數據
+        if (cache.getMode() == CacheMode.FULL) {
+            this.statisticsCutoff = getExpiryCutoff();
+            cache.loadAll();
+            long totalMails = 0;
+            int playersWithMail = 0;
+            for (PlayerMailbox mailbox : cache.values()) {
+                if (mailbox.getTotalCount() > 0) {
+                    totalMails += mailbox.getTotalCount();
+                    playersWithMail++;
+                }
+            }
+            this.statisticsBaseline = new MailStatistics(totalMails, playersWithMail);
+        } else {
+            // 在寫入線程上統計，保證早於任何隊列寫入執行
+            writeQueue.submit(() -> {
+                statisticsCutoff = getExpiryCutoff();
+                MailStatistics statistics = dataManager.loadMailStatistics();
+                if (statistics != null) {
+                    statisticsBaseline = statistics;
+                }
+            });
+        }
+
+        // 載入玩家名稱索引，首次啟動時在背景從伺服器的玩家資料建立
+        this.nameIndex = new PlayerNameIndex(new File(plugin.getDataFolder(), "player-names.txt"), plugin.getLogger());
+        if (!nameIndex.load()) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> nameIndex.seed(Bukkit.getOfflinePlayers()));
+        }
+        for (Player online : Bukkit.getOnlinePlayers()) {
+            nameIndex.update(online.getUniqueId(), online.getName());
+        }
+
+        // 加載廣播郵件，玩家訪問信箱時再放入各自的信箱
+        this.broadcasts.addAll(dataManager.loadBroadcasts());
+        if (!broadcasts.isEmpty()) {
+            this.latestBroadcastId = broadcasts.get(broadcasts.size() - 1).getId();
+        }
+
+        // 郵件上限或溢出策略修改後第一次啟動時，在背景將已超出上限的信箱調整到上限以內
+        // reject 策略只拒絕新郵件，不會刪除或合併玩家已有的郵件
+        File limitFile = new File(plugin.getDataFolder(), "mail-limit.txt");
+        String limitMarker = maxMails + ":" + overflowPolicy.name().toLowerCase();
+        if (maxMails > 0 && overflowPolicy != OverflowPolicy.REJECT && !limitMarker.equals(readLimitMarker(limitFile))) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> enforceMailLimit(limitFile, limitMarker));
+        }
+    }
+
+    /**
+     * 获取玩家信箱，并放入尚未接收的广播邮件
+     *
+     * @param playerUUID 玩家UUID
+     * @return 玩家信箱
+     */
+    private PlayerMailbox mailbox(UUID playerUUID) {
+        PlayerMailbox mailbox = cache.get(playerUUID);
+        if (mailbox.getBroadcastWatermark() < latestBroadcastId) {
+            deliverBroadcasts(mailbox);
+        }
+        return mailbox;
+    }
+
+    /**
+     * 异步载入玩家信箱并放入尚未接收的广播邮件，已缓存时立即完成
+     *
+     * @param playerUUID 玩家UUID
+     * @return 载入完成的信箱
+     */
+    public CompletableFuture<PlayerMailbox> loadMailboxAsync(UUID playerUUID) {
+        return cache.getAsync(playerUUID, loader).thenApplyAsync(mailbox -> {
+            if (mailbox.getBroadcastWatermark() < latestBroadcastId) {
+                deliverBroadcasts(mailbox);
+            }
+            return mailbox;
+        }, loader);
+    }
+
+    /**
+     * 确保玩家信箱已载入后在主线程执行操作
+     * 信箱已缓存时立即执行；需要从存储读取时先提示发送者，读取完成后再回到主线程执行
+     *
+     * @param playerUUID 玩家UUID
+     * @param sender     需要提示的命令发送者，可以为null
+     * @param action     在主线程执行的操作
+     */
+    public void whenMailboxLoaded(UUID playerUUID, CommandSender sender, Runnable action) {
+        whenMailboxLoaded(playerUUID, sender, action, null);
+    }
+
+    /**
+     * 确保玩家信箱已载入后在主线程执行操作，操作因载入失败或插件关闭而不会执行时改为执行失败处理
+     * 用于已从界面中取出物品的操作，失败处理负责把物品退回，不会无声丢失
+     *
+     * @param playerUUID 玩家UUID
+     * @param sender     需要提示的命令发送者，可以为null
+     * @param action     在主线程执行的操作
+     * @param onFailure  操作不会执行时的处理，可以为null
+     */
+    public void whenMailboxLoaded(UUID playerUUID, CommandSender sender, Runnable action, Runnable onFailure) {
+        PlayerMailbox cached = cache.getIfPresent(playerUUID);
+        if (cached != null && cached.getBroadcastWatermark() >= latestBroadcastId && Bukkit.isPrimaryThread()) {
+            action.run();
+            return;
+        }
+
+        if (sender != null) {
+            sender.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GRAY + "正在載入信箱...");
+        }
+        runWhenLoaded(playerUUID, loadMailboxAsync(playerUUID), sender, action, onFailure);
+    }
+
+    /**
+     * 在玩家登录前 (AsyncPlayerPreLoginEvent) 开始载入其信箱
+     * 载入结果保留一分钟，玩家在此期间没有进入服务器时丢弃，信箱随后由缓存正常淘汰
+     *
+     * @param playerUUID 玩家UUID
+     */
+    public void prefetchMailbox(UUID playerUUID) {
+        CompletableFuture<PlayerMailbox> future = loadMailboxAsync(playerUUID);
+        prefetches.put(playerUUID, future);
+        if (plugin.isEnabled()) {
+            Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> {
+                discardPrefetch(playerUUID, future);
+            }, 1200L); // 1分钟 = 1200 ticks
+        }
+    }
+
+    /**
+     * 丢弃玩家的预载入 (登录被拒绝或已退出)
+     *
+     * @param playerUUID 玩家UUID
+     */
+    public void discardPrefetch(UUID playerUUID) {
+        CompletableFuture<PlayerMailbox> future = prefetches.remove(playerUUID);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void discardPrefetch(UUID playerUUID, CompletableFuture<PlayerMailbox> future) {
+        if (prefetches.remove(playerUUID, future)) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 玩家进入服务器时取用登录前开始的载入，信箱就绪后在主线程执行操作
+     * 没有预载入 (例如插件重载后) 时按普通方式异步载入，不会阻塞主线程
+     *
+     * @param playerUUID 玩家UUID
+     * @param action     在主线程执行的操作
+     */
+    public void whenJoinedMailboxLoaded(UUID playerUUID, Runnable action) {
+        CompletableFuture<PlayerMailbox> future = prefetches.remove(playerUUID);
+        if (future == null) {
+            whenMailboxLoaded(playerUUID, null, action);
+        } else if (future.isDone() && !future.isCompletedExceptionally() && Bukkit.isPrimaryThread()) {
+            action.run();
+        } else {
+            runWhenLoaded(playerUUID, future, null, action, null);
+        }
+    }
+
+    /**
+     * 载入完成后回到主线程执行操作，失败时提示发送者并执行失败处理
+     */
+    private void runWhenLoaded(UUID playerUUID, CompletableFuture<PlayerMailbox> future, CommandSender sender,
+                               Runnable action, Runnable onFailure) {
+        future.whenComplete((mailbox, error) -> {
+            if (!plugin.isEnabled()) {
+                // 插件正在关闭，主线程在 shutdown 中等待载入线程结束，此时直接执行失败处理不会与主线程并发
+                if (onFailure != null) {
+                    onFailure.run();
+                }
+                return;
+            }
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (error != null) {
+                    plugin.getLogger().warning("载入玩家 " + playerUUID + " 的信箱时出错: " + error.getMessage());
+                    if (sender != null) {
+                        sender.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED + "載入信箱失敗，請稍後再試。");
+                    }
+                    if (onFailure != null) {
+                        onFailure.run();
+                    }
+                    return;
+                }
+                action.run();
+            });
+        });
+    }
+
+    /**
+     * 将玩家尚未接收的广播邮件放入其信箱
+     * 只有在广播发送前已加入过服务器的玩家才会收到该广播
+     *
+     * @param mailbox 玩家信箱
+     */
+    private void deliverBroadcasts(PlayerMailbox mailbox) {
+        UUID playerUUID = mailbox.getOwner();
+        synchronized (mailbox) {
+            long watermark = mailbox.getBroadcastWatermark();
+            if (watermark < 0) {
+                watermark = dataManager.loadBroadcastWatermark(playerUUID);
+                if (watermark < 0) {
+                    return; // 读取失败，下次访问时重试
+                }
+                mailbox.setBroadcastWatermark(watermark);
+            }
+
+            long latest = latestBroadcastId;
+            if (watermark >= latest) {
+                return;
+            }
+
+            long firstPlayed = Bukkit.getOfflinePlayer(playerUUID).getFirstPlayed();
+            long expiryCutoff = getExpiryCutoff();
+            Set<UUID> existingIds = null;
+            for (BroadcastMail broadcast : broadcasts) {
+                if (broadcast.getId() <= watermark || broadcast.getId() > latest) {
+                    continue;
+                }
+                if (firstPlayed == 0 || firstPlayed > broadcast.getTimestamp()) {
+                    continue;
+                }
+                // 已过期的广播不再放入信箱
+                if (broadcast.getTimestamp() < expiryCutoff) {
+                    continue;
+                }
+
+                // 广播邮件的ID由玩家和广播ID确定，避免水位未保存时重复放入
+                UUID mailId = UUID.nameUUIDFromBytes((playerUUID + ":" + broadcast.getId()).getBytes(StandardCharsets.UTF_8));
+                if (existingIds == null) {
+                    existingIds = new HashSet<>();
+                    for (MailItem mail : mailbox.getMails()) {
+                        existingIds.add(mail.getId());
+                    }
+                }
+                if (existingIds.contains(mailId)) {
+                    continue;
+                }
+
+                // 邮件中的物品只读，所有玩家共享广播的同一个物品实例
+                MailItem mail = new MailItem(mailId, broadcast.getItem(), broadcast.getTimestamp(), false);
+                int before = mailbox.getTotalCount();
+                mailbox.add(mail);
+                recordCountChange(before, mailbox.getTotalCount());
+                writeQueue.enqueueAppend(mailbox, mailbox.markDirty(), mail);
+            }
+
+            mailbox.setBroadcastWatermark(latest);
+            writeQueue.enqueueWatermark(mailbox, mailbox.markDirty(), latest);
+        }
+    }
+
+    /**
+     * 发送广播邮件给所有玩家
+     * 每件物品只保存一份，离线玩家在下次访问信箱时才会收到
+     *
+     * @param sender 发送者
+     * @param items  物品列表
+     */
+    public void sendBroadcast(CommandSender sender, List<ItemStack> items) {
+        long timestamp = System.currentTimeMillis();
+        writeQueue.submit(() -> {
+            List<BroadcastMail> saved = new ArrayList<>();
+            for (ItemStack item : items) {
+                long id = dataManager.saveBroadcast(item, timestamp);
+                if (id > 0) {
+                    saved.add(new BroadcastMail(id, item, timestamp));
+                } else {
+                    plugin.getLogger().severe("广播邮件保存失败，物品未发送: " + MailboxUtils.getItemDisplayName(item));
+                }
+            }
+
+            if (!saved.isEmpty() && plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, () -> publishBroadcasts(sender, saved));
+            }
+        });
+    }
+
+    /**
+     * 登记已保存的广播邮件，并立即放入在线玩家的信箱
+     *
+     * @param sender 发送者
+     * @param saved  已保存的广播邮件
+     */
+    private void publishBroadcasts(CommandSender sender, List<BroadcastMail> saved) {
+        broadcasts.addAll(saved);
+        latestBroadcastId = Math.max(latestBroadcastId, saved.get(saved.size() - 1).getId());
+
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            mailbox(player.getUniqueId());
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW + "您收到了一封新邮件! 使用 /mail box 查看。");
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN + "成功發送 " + saved.size() + " 件物品給所有玩家!");
+    }
+
+    /**
+     * 检查信箱是否允许从缓存中淘汰
+     * 在线玩家、正在被管理员查看的信箱和尚未保存的信箱不会被淘汰
+     *
+     * @param mailbox 玩家信箱
+     * @return 是否允许淘汰
+     */
+    private boolean canEvict(PlayerMailbox mailbox) {
+        UUID playerUUID = mailbox.getOwner();
+        return !mailbox.isDirty()
+                && !writeQueue.hasPending(playerUUID)
+                && Bukkit.getPlayer(playerUUID) == null
+                && !targetPlayers.containsValue(playerUUID);
+    }
+
+    /**
+     * 获取玩家的邮件列表，未缓存时从存储中载入
+     *
+     * @param playerUUID 玩家UUID
+     * @return 邮件列表
+     */
+    public List<MailItem> getMailbox(UUID playerUUID) {
+        return mailbox(playerUUID).getMails();
+    }
+
+    /**
+     * 获取所有拥有信箱的玩家 (包括未缓存的离线玩家)
+     *
+     * @return 玩家UUID集合
+     */
+    public Set<UUID> getMailboxOwners() {
+        if (cache.getMode() == CacheMode.FULL) {
+            return new HashSet<>(cache.keySet());
+        }
+        Set<UUID> owners = dataManager.loadMailboxOwners();
+        owners.addAll(cache.keySet());
+        return owners;
+    }
 
-        // 加載所有玩家的信箱數據
-        this.playerMailboxes = dataManager.loadAllMailboxes();
+    /**
+     * 淘汰缓存中闲置的离线玩家信箱
+     */
+    public void cleanUpCache() {
+        cache.cleanUp();
     }
 
     /**
@@ -58,36 +523,436 @@ public class MailboxManager {
      * @return 未读邮件数量
      */
     public int getUnreadMailCount(UUID playerUUID) {
-        List<MailItem> mails = playerMailboxes.getOrDefault(playerUUID, new ArrayList<>());
-        int count = 0;
-        for (MailItem mail : mails) {
-            if (!mail.isRead()) {
-                count++;
-            }
+        PlayerMailbox mailbox = cache.getIfPresent(playerUUID);
+        if (mailbox == null) {
+            return 0;
+        }
+        return mailbox.getUnreadCount();
+    }
+
+    /**
+     * 获取邮件总数
+     *
+     * @param playerUUID 玩家UUID
+     * @return 邮件总数
+     */
+    public int getTotalMailCount(UUID playerUUID) {
+        PlayerMailbox mailbox = cache.getIfPresent(playerUUID);
+        return mailbox == null ? 0 : mailbox.getTotalCount();
+    }
+
+    /**
+     * 获取已缓存信箱的摘要，不会触发载入
+     *
+     * @param playerUUID 玩家UUID
+     * @return 信箱摘要，未缓存时返回空摘要
+     */
+    public MailboxSummary getMailboxSummary(UUID playerUUID) {
+        PlayerMailbox mailbox = cache.getIfPresent(playerUUID);
+        return mailbox == null ? MailboxSummary.EMPTY : mailbox.getSummary();
+    }
+
+    /**
+     * 获取全服邮件总数
+     *
+     * @return 邮件总数
+     */
+    public long getServerTotalMails() {
+        return statisticsBaseline.getTotalMails() + totalMailsDelta.get();
+    }
+
+    /**
+     * 获取全服拥有邮件的玩家数量
+     *
+     * @return 玩家数量
+     */
+    public int getServerPlayersWithMail() {
+        return statisticsBaseline.getPlayersWithMail() + playersWithMailDelta.get();
+    }
+
+    /**
+     * 根据信箱修改前后的邮件数量更新全服统计
+     *
+     * @param before 修改前的邮件数量
+     * @param after  修改后的邮件数量
+     */
+    private void recordCountChange(int before, int after) {
+        totalMailsDelta.addAndGet(after - before);
+        if (before == 0 && after > 0) {
+            playersWithMailDelta.incrementAndGet();
+        } else if (before > 0 && after == 0) {
+            playersWithMailDelta.decrementAndGet();
         }
-        return count;
     }
 
     /**
      * 添加邮件到玩家信箱
+     * 信箱已达到邮件数量上限时按溢出策略处理，上限检查只读取摘要中的邮件总数
      *
      * @param playerUUID 玩家UUID
      * @param item       物品
+     * @return 未能放入信箱的物品，全部放入时返回null
      */
-    public void addMailToPlayer(UUID playerUUID, ItemStack item) {
-        List<MailItem> mails = playerMailboxes.getOrDefault(playerUUID, new ArrayList<>());
-        MailItem mailItem = new MailItem(item, System.currentTimeMillis(), false);
-        mails.add(mailItem);
-        playerMailboxes.put(playerUUID, mails);
+    public ItemStack addMailToPlayer(UUID playerUUID, ItemStack item) {
+        PlayerMailbox mailbox = mailbox(playerUUID);
+        ItemStack rejected = null;
+        synchronized (mailbox) {
+            if (maxMails <= 0 || mailbox.getTotalCount() < maxMails) {
+                MailItem mailItem = new MailItem(item, System.currentTimeMillis(), false);
+                int before = mailbox.getTotalCount();
+                mailbox.add(mailItem);
+                recordCountChange(before, mailbox.getTotalCount());
+                // 只写入新增的这一封邮件
+                writeQueue.enqueueAppend(mailbox, mailbox.markDirty(), mailItem);
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                MailItem mailItem = new MailItem(item, System.currentTimeMillis(), false);
+                MailItem dropped = mailbox.replaceOldest(mailItem);
+                if (dropped != null) {
+                    writeQueue.enqueueRemove(mailbox, mailbox.markDirty(), dropped.getId());
+                }
+                writeQueue.enqueueAppend(mailbox, mailbox.markDirty(), mailItem);
+            } else if (overflowPolicy == OverflowPolicy.MERGE) {
+                ItemStack rest = item.clone();
+                MailItem merged = mailbox.merge(rest);
+                if (merged != null) {
+                    writeQueue.enqueueUpdate(mailbox, mailbox.markDirty(), merged);
+                }
+                if (rest.getAmount() > 0) {
+                    rejected = merged == null ? item : rest;
+                }
+            } else {
+                rejected = item;
+            }
+        }
 
         // 如果玩家在线，发送通知
         Player player = Bukkit.getPlayer(playerUUID);
-        if (player != null && player.isOnline()) {
+        if (rejected != item && player != null && player.isOnline()) {
             player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW + "您收到了一封新邮件! 使用 /mail box 查看。");
         }
+        return rejected;
+    }
+
+    /**
+     * 将未能放入信箱的物品退回玩家背包，背包放不下的掉落在玩家脚下
+     *
+     * @param player 玩家
+     * @param item   物品
+     */
+    public void returnToPlayer(Player player, ItemStack item) {
+        for (ItemStack leftover : player.getInventory().addItem(item).values()) {
+            player.getWorld().dropItemNaturally(player.getLocation(), leftover);
+        }
+    }
+
+    /**
+     * 从玩家信箱中移除邮件 (领取或删除)
+     *
+     * @param playerUUID 玩家UUID
+     * @param mailId     邮件ID
+     * @return 邮件是否存在并被移除
+     */
+    public boolean removeMail(UUID playerUUID, UUID mailId) {
+        PlayerMailbox mailbox = mailbox(playerUUID);
+        synchronized (mailbox) {
+            int before = mailbox.getTotalCount();
+            boolean removed = mailbox.remove(mailId) != null;
+            if (removed) {
+                recordCountChange(before, mailbox.getTotalCount());
+                writeQueue.enqueueRemove(mailbox, mailbox.markDirty(), mailId);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * 领取一封邮件
+     * 在领取线程上由存储删除这封邮件，只有存储确认邮件存在并被本次删除后才发放物品，
+     * 重复点击或多个服务器同时领取同一封邮件时物品只会发放一次
+     *
+     * @param player 玩家
+     * @param mailId 邮件ID
+     */
+    public void claimMail(Player player, UUID mailId) {
+        if (!claiming.add(mailId)) {
+            return;
+        }
+        UUID playerUUID = player.getUniqueId();
+        PlayerMailbox mailbox = mailbox(playerUUID);
+        runClaim(playerUUID, ready -> claimStored(playerUUID, mailbox, mailId, ready));
+    }
+
+    /**
+     * 在领取线程上执行领取
+     * 信箱在队列中还有未写入的修改时 (如刚收到的邮件)，先在写入线程上写入，保证存储中已包含此前的所有修改；
+     * 否则直接在领取线程上删除，不必排在其他玩家的队列写入之后
+     *
+     * @param playerUUID 玩家UUID
+     * @param claim      领取操作，参数为存储是否已包含信箱此前的所有修改
+     */
+    private void runClaim(UUID playerUUID, Consumer<Boolean> claim) {
+        if (!writeQueue.hasUnwritten(playerUUID)) {
+            executeClaim(() -> claim.accept(true));
+            return;
+        }
+        writeQueue.submit(() -> {
+            boolean flushed = writeQueue.flushPending(playerUUID);
+            executeClaim(() -> claim.accept(flushed));
+        });
+    }
+
+    private void executeClaim(Runnable task) {
+        try {
+            claimer.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 插件正在关闭，领取线程已停止；直接执行，领取操作会发现插件已关闭并放弃
+            task.run();
+        }
+    }
+
+    private void claimStored(UUID playerUUID, PlayerMailbox mailbox, UUID mailId, boolean ready) {
+        MailItem mail = null;
+        ClaimResult result = ClaimResult.FAILED;
+        try {
+            if (plugin.isEnabled() && ready) {
+                mail = findMail(mailbox, mailId);
+                result = mail == null ? ClaimResult.NOT_FOUND : dataManager.claimMail(playerUUID, mailId);
+            }
+        } catch (RuntimeException e) {
+            plugin.getLogger().severe("领取邮件时出错: " + playerUUID + " - " + e.getMessage());
+        }
+
+        if (!plugin.isEnabled()) {
+            claiming.remove(mailId);
+            if (result == ClaimResult.CLAIMED) {
+                // 插件已关闭，物品无法再发放，把邮件写回存储 (内存中的邮件未移除，停用时的保存不会再删除它)
+                restoreClaimed(playerUUID, Collections.singletonList(mail));
+            }
+            return;
+        }
+
+        if (result == ClaimResult.CLAIMED) {
+            journalClaimed(playerUUID, Collections.singletonList(mailId));
+        }
+        if (result != ClaimResult.FAILED) {
+            synchronized (mailbox) {
+                int before = mailbox.getTotalCount();
+                MailItem removed = mailbox.remove(mailId);
+                if (removed != null) {
+                    mail = removed;
+                    recordCountChange(before, mailbox.getTotalCount());
+                }
+            }
+        }
+        MailItem claimed = mail;
+        ClaimResult claimResult = result;
+        Bukkit.getScheduler().runTask(plugin, () -> finishClaim(playerUUID, mailbox, mailId, claimed, claimResult));
+    }
+
+    /**
+     * 把已在存储中领取 (删除) 的邮件记入预写日志，重放时不会再把它们加回信箱
+     */
+    private void journalClaimed(UUID playerUUID, Collection<UUID> mailIds) {
+        if (journal == null || mailIds.isEmpty()) {
+            return;
+        }
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getRemoved().addAll(mailIds);
+        if (journal.append(playerUUID, changes) < 0) {
+            plugin.getLogger().warning("无法把已领取的邮件记入预写日志: " + playerUUID);
+        }
+    }
+
+    /**
+     * 插件关闭后把已从存储删除但无法再发放的邮件写回存储
+     */
+    private void restoreClaimed(UUID playerUUID, List<MailItem> mails) {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        changes.getAppended().addAll(mails);
+        if (dataManager.applyChanges(playerUUID, changes) < 0) {
+            for (MailItem mail : mails) {
+                plugin.getLogger().severe("插件关闭时无法写回已领取的邮件，物品已丢失: " + playerUUID + " - " +
+                        mail.getId() + " (" + mail.getItem().getType() + " x" + mail.getItem().getAmount() + ")");
+            }
+        }
+    }
+
+    /**
+     * 在主线程上根据领取结果发放物品并通知玩家
+     */
+    private void finishClaim(UUID playerUUID, PlayerMailbox mailbox, UUID mailId, MailItem mail, ClaimResult result) {
+        claiming.remove(mailId);
+        Player player = Bukkit.getPlayer(playerUUID);
+
+        if (result == ClaimResult.CLAIMED) {
+            if (player != null && player.isOnline()) {
+                // 邮件中的物品可能是共享的模板，交给玩家前先复制；领取期间背包被占满时多余的物品掉落在脚下
+                returnToPlayer(player, mail.getItem().clone());
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN + "成功領取物品!");
+            } else {
+                // 领取期间玩家已离线，把邮件放回信箱
+                putBack(mailbox, Collections.singletonList(mail));
+            }
+        } else if (player != null && player.isOnline()) {
+            if (result == ClaimResult.NOT_FOUND) {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW + "該物品已被領取。");
+            } else {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED + "領取物品失敗，請稍後再試。");
+            }
+        }
+        refreshMailboxViews(playerUUID);
+    }
+
+    /**
+     * 把已从存储删除、但领取期间玩家已离线的邮件放回信箱
+     */
+    private void putBack(PlayerMailbox mailbox, List<MailItem> mails) {
+        synchronized (mailbox) {
+            for (MailItem mail : mails) {
+                int before = mailbox.getTotalCount();
+                mailbox.add(mail);
+                recordCountChange(before, mailbox.getTotalCount());
+                writeQueue.enqueueAppend(mailbox, mailbox.markDirty(), mail);
+            }
+        }
+    }
+
+    private MailItem findMail(PlayerMailbox mailbox, UUID mailId) {
+        for (MailItem mail : mailbox.getMails()) {
+            if (mail.getId().equals(mailId)) {
+                return mail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 领取信箱中所有能放入背包的邮件
+     * 一次计算出能放下的邮件，在领取线程上由存储在一次原子写入中删除，
+     * 只发放存储确认本次删除的邮件，已在其他服务器或其他操作中领走的邮件不会重复发放
+     *
+     * @param player 玩家
+     */
+    public void claimAll(Player player) {
+        UUID playerUUID = player.getUniqueId();
+        PlayerMailbox mailbox = mailbox(playerUUID);
+        List<MailItem> mails = mailbox.getMails();
+        if (mails.isEmpty()) {
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW + "您的信箱是空的。");
+            return;
+        }
+
+        List<ItemStack> items = new ArrayList<>(mails.size());
+        for (MailItem mail : mails) {
+            items.add(mail.getItem());
+        }
+        List<Integer> fitting = MailboxUtils.planFit(player.getInventory(), items);
+        if (fitting.isEmpty()) {
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED + "您的背包已滿，無法領取物品!");
+            return;
+        }
+
+        // 正在单独领取的邮件跳过，由那次领取发放
+        Map<UUID, MailItem> selected = new LinkedHashMap<>();
+        for (int index : fitting) {
+            MailItem mail = mails.get(index);
+            if (claiming.add(mail.getId())) {
+                selected.put(mail.getId(), mail);
+            }
+        }
+        if (selected.isEmpty()) {
+            return;
+        }
+        runClaim(playerUUID, ready -> claimStoredAll(playerUUID, mailbox, selected, ready));
+    }
+
+    private void claimStoredAll(UUID playerUUID, PlayerMailbox mailbox, Map<UUID, MailItem> selected, boolean ready) {
+        Set<UUID> claimedIds = null;
+        try {
+            if (plugin.isEnabled() && ready) {
+                claimedIds = dataManager.claimMails(playerUUID, selected.keySet());
+            }
+        } catch (RuntimeException e) {
+            plugin.getLogger().severe("领取邮件时出错: " + playerUUID + " - " + e.getMessage());
+        }
+
+        List<MailItem> claimed = new ArrayList<>();
+        if (claimedIds != null) {
+            for (UUID mailId : claimedIds) {
+                claimed.add(selected.get(mailId));
+            }
+        }
+
+        if (!plugin.isEnabled()) {
+            claiming.removeAll(selected.keySet());
+            if (!claimed.isEmpty()) {
+                restoreClaimed(playerUUID, claimed);
+            }
+            return;
+        }
+
+        if (claimedIds != null) {
+            journalClaimed(playerUUID, claimedIds);
+            // 存储中已不存在的邮件 (已被其他服务器领取) 也从内存中移除
+            synchronized (mailbox) {
+                int before = mailbox.getTotalCount();
+                if (!mailbox.removeAll(selected.keySet()).isEmpty()) {
+                    recordCountChange(before, mailbox.getTotalCount());
+                }
+            }
+        }
+        boolean failed = claimedIds == null;
+        Bukkit.getScheduler().runTask(plugin, () -> finishClaimAll(playerUUID, mailbox, selected.keySet(), claimed, failed));
+    }
+
+    /**
+     * 在主线程上发放一键领取的物品并通知玩家
+     */
+    private void finishClaimAll(UUID playerUUID, PlayerMailbox mailbox, Set<UUID> mailIds, List<MailItem> claimed,
+                                boolean failed) {
+        claiming.removeAll(mailIds);
+        Player player = Bukkit.getPlayer(playerUUID);
 
-        // 保存玩家信箱数据
-        dataManager.savePlayerMailbox(playerUUID, mails);
+        if (player == null || !player.isOnline()) {
+            // 领取期间玩家已离线，把邮件放回信箱
+            putBack(mailbox, claimed);
+        } else if (failed) {
+            player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED + "領取物品失敗，請稍後再試。");
+        } else {
+            for (MailItem mail : claimed) {
+                // 邮件中的物品可能是共享的模板，交给玩家前先复制；
+                // 实际放入与预先计算不一致时 (如背包在此期间被修改)，放不下的物品掉落在玩家脚下而不是丢失
+                returnToPlayer(player, mail.getItem().clone());
+            }
+            if (!claimed.isEmpty()) {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.GREEN + "成功領取 " + claimed.size() + " 件物品!");
+            }
+            if (claimed.size() < mailIds.size()) {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW +
+                        "有 " + (mailIds.size() - claimed.size()) + " 件物品已被領取。");
+            }
+            int remaining = mailbox.getTotalCount();
+            if (remaining > 0) {
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW +
+                        "背包空間不足，還有 " + remaining + " 件物品留在信箱中。");
+            }
+        }
+        refreshMailboxViews(playerUUID);
+    }
+
+    /**
+     * 将玩家信箱中的所有邮件标记为已读
+     *
+     * @param playerUUID 玩家UUID
+     */
+    public void markAllRead(UUID playerUUID) {
+        PlayerMailbox mailbox = mailbox(playerUUID);
+        synchronized (mailbox) {
+            List<UUID> unreadIds = mailbox.markAllRead();
+            if (!unreadIds.isEmpty()) {
+                writeQueue.enqueueRead(mailbox, mailbox.markDirty(), unreadIds);
+            }
+        }
     }
 
     /**
@@ -97,9 +962,13 @@ public class MailboxManager {
      * @param item         物品
      */
     public void handleItemFromCommand(Player targetPlayer, ItemStack item) {
-        addMailToPlayer(targetPlayer.getUniqueId(), item);
+        ItemStack rejected = addMailToPlayer(targetPlayer.getUniqueId(), item);
 
-        if (targetPlayer.isOnline()) {
+        if (rejected != null) {
+            returnToPlayer(targetPlayer, rejected);
+            targetPlayer.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED +
+                    "您的信箱已满，物品已退回背包!");
+        } else if (targetPlayer.isOnline()) {
             targetPlayer.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW +
                     "您收到了一份新物品! 使用 /mail box 查看。");
         }
@@ -113,7 +982,14 @@ public class MailboxManager {
      */
     public void handleItemToMailbox(Player player, ItemStack item) {
         if (item != null && item.getType() != org.bukkit.Material.AIR) {
-            addMailToPlayer(player.getUniqueId(), item);
+            ItemStack rejected = addMailToPlayer(player.getUniqueId(), item);
+            if (rejected != null) {
+                // 信箱已满，背包也放不下，物品掉落在玩家脚下
+                player.getWorld().dropItemNaturally(player.getLocation(), rejected);
+                player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.RED +
+                        "您的背包和信箱都已满，物品已掉落在地上!");
+                return;
+            }
             player.sendMessage(ChatColor.GOLD + "[信箱系统] " + ChatColor.YELLOW +
                     "您的背包已满，物品已自动存入信箱! 使用 /mail box 查看。");
         }
@@ -125,17 +1001,386 @@ public class MailboxManager {
      * @param playerUUID 玩家UUID
      */
     public void loadPlayerMailbox(UUID playerUUID) {
-        if (!playerMailboxes.containsKey(playerUUID)) {
-            List<MailItem> mailItems = dataManager.loadPlayerMailbox(playerUUID);
-            playerMailboxes.put(playerUUID, mailItems);
+        mailbox(playerUUID);
+    }
+
+    /**
+     * 在写入线程上保存下一个分片中有修改的信箱，避免与异步写入队列交错
+     */
+    public void scheduleDirtySave() {
+        writeQueue.submit(autoSave::runSlice);
+    }
+
+    /**
+     * 按版本保存整个信箱，必须在写入线程上调用
+     * 存储中的信箱已被其他写入方修改时，保存的是逐封合并后的结果，并将对方的修改合并到缓存的信箱中
+     *
+     * @param mailbox 玩家信箱
+     * @return 写入的邮件数量，保存失败时返回-1
+     */
+    int saveMailbox(PlayerMailbox mailbox) {
+        MailboxSnapshot snapshot = mailbox.snapshot();
+        MailboxSaveResult result = dataManager.saveMailbox(snapshot.getOwner(), snapshot.getStoredMails(),
+                snapshot.getStoredVersion(), snapshot.getMails());
+        if (!result.isSaved()) {
+            return -1;
+        }
+
+        synchronized (mailbox) {
+            int before = mailbox.getTotalCount();
+            mailbox.markStored(snapshot, result);
+            recordCountChange(before, mailbox.getTotalCount());
+        }
+        if (!mailbox.isDirty()) {
+            writeQueue.markSaved(mailbox.getOwner());
+        }
+        if (result.isMerged() && plugin.isEnabled()) {
+            Bukkit.getScheduler().runTask(plugin, () -> refreshMailboxViews(mailbox.getOwner()));
+        }
+        return result.isMerged() ? result.getMergedMails().size() : snapshot.getMails().size();
+    }
+
+    /**
+     * 一次保存所有自上次成功保存后有修改的信箱，只在关闭插件时使用
+     * 仍有修改在写入队列中的信箱由队列负责写入
+     */
+    public void saveDirtyMailboxes() {
+        long start = System.nanoTime();
+        int savedMailboxes = 0;
+        int savedRows = 0;
+        int failed = 0;
+
+        for (PlayerMailbox mailbox : cache.values()) {
+            if (!mailbox.isDirty() || writeQueue.hasPending(mailbox.getOwner())) {
+                continue;
+            }
+
+            int rows = saveMailbox(mailbox);
+            if (rows >= 0) {
+                savedMailboxes++;
+                savedRows += rows;
+            } else {
+                failed++;
+            }
+        }
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+        plugin.getLogger().info("自动保存完成: 写入 " + savedMailboxes + " 个信箱, " + savedRows +
+                " 封邮件, 耗时 " + elapsedMillis + "ms" + (failed > 0 ? ", 失败 " + failed + " 个" : ""));
+    }
+
+    /**
+     * 将已超出邮件数量上限的信箱调整到上限以内，完成后记录本次使用的上限和策略
+     * drop-oldest 策略删除最早的邮件；merge 策略只合并相同的物品堆，不删除任何物品
+     * 信箱依次异步载入，处理完一个再载入下一个，不阻塞任何线程等待载入
+     *
+     * @param limitFile   记录已执行上限的文件
+     * @param limitMarker 本次使用的上限和策略
+     */
+    private void enforceMailLimit(File limitFile, String limitMarker) {
+        Set<UUID> oversized = dataManager.findOversizedMailboxes(maxMails);
+        for (PlayerMailbox mailbox : cache.values()) {
+            if (mailbox.getTotalCount() > maxMails) {
+                oversized.add(mailbox.getOwner());
+            }
+        }
+
+        int[] adjusted = new int[2];
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (UUID owner : oversized) {
+            chain = chain.thenCompose(ignored -> {
+                if (!plugin.isEnabled()) {
+                    throw new IllegalStateException("插件已关闭");
+                }
+                return loadMailboxAsync(owner);
+            }).thenAccept(mailbox -> {
+                int count = trimMailbox(mailbox);
+                if (count > 0) {
+                    adjusted[0]++;
+                    adjusted[1] += count;
+                }
+            });
+        }
+
+        chain.whenComplete((ignored, error) -> {
+            if (error != null) {
+                // 插件关闭时中断，下次启动时重新执行
+                if (plugin.isEnabled()) {
+                    plugin.getLogger().warning("调整超出邮件上限的信箱时出错: " + error.getMessage());
+                }
+                return;
+            }
+            if (adjusted[0] > 0) {
+                plugin.getLogger().info("已将 " + adjusted[0] + " 个信箱调整到邮件上限 " + maxMails +
+                        " 以内，共减少 " + adjusted[1] + " 封邮件");
+            }
+            try {
+                Files.write(limitFile.toPath(), limitMarker.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                plugin.getLogger().warning("保存邮件上限记录时出错: " + e.getMessage());
+            }
+        });
+    }
+
+    private int trimMailbox(PlayerMailbox mailbox) {
+        synchronized (mailbox) {
+            int before = mailbox.getTotalCount();
+            if (before <= maxMails) {
+                return 0;
+            }
+
+            if (overflowPolicy == OverflowPolicy.MERGE) {
+                MailboxChangeSet changes = mailbox.mergeStacks();
+                for (MailItem mail : changes.getUpdated()) {
+                    writeQueue.enqueueUpdate(mailbox, mailbox.markDirty(), mail);
+                }
+                if (!changes.getRemoved().isEmpty()) {
+                    writeQueue.enqueueRemoveAll(mailbox, mailbox.markDirty(), changes.getRemoved());
+                }
+                recordCountChange(before, mailbox.getTotalCount());
+                return before - mailbox.getTotalCount();
+            }
+
+            List<MailItem> dropped = mailbox.trimOldest(maxMails);
+            if (!dropped.isEmpty()) {
+                List<UUID> droppedIds = new ArrayList<>(dropped.size());
+                for (MailItem mail : dropped) {
+                    droppedIds.add(mail.getId());
+                }
+                writeQueue.enqueueRemoveAll(mailbox, mailbox.markDirty(), droppedIds);
+            }
+            recordCountChange(before, mailbox.getTotalCount());
+            return before - mailbox.getTotalCount();
+        }
+    }
+
+    private static String readLimitMarker(File limitFile) {
+        if (!limitFile.exists()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(limitFile.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 检查是否需要轮询其他服务器的修改 (多个服务器共用同一个数据库)
+     *
+     * @return 存储是否记录变更日志
+     */
+    public boolean isRemoteSyncEnabled() {
+        return dataManager.supportsRemoteChanges();
+    }
+
+    /**
+     * 重新载入其他服务器修改过的信箱
+     * 只处理本服务器已缓存的信箱，未缓存的信箱下次访问时自然从存储读取最新数据；
+     * 本地仍有未写入修改的信箱延后到本地修改写入存储之后再重新载入
+     */
+    public void pollRemoteChanges() {
+        if (!pollingRemote.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Set<UUID> changed = new HashSet<>(dataManager.pollRemoteChanges());
+            changed.addAll(staleMailboxes);
+            staleMailboxes.clear();
+
+            Set<UUID> reloaded = new HashSet<>();
+            for (UUID owner : changed) {
+                PlayerMailbox mailbox = cache.getIfPresent(owner);
+                if (mailbox == null) {
+                    continue;
+                }
+                if (reloadMailbox(mailbox)) {
+                    reloaded.add(owner);
+                } else {
+                    staleMailboxes.add(owner);
+                }
+            }
+
+            if (!reloaded.isEmpty() && plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    for (UUID owner : reloaded) {
+                        refreshMailboxViews(owner);
+                    }
+                });
+            }
+        } finally {
+            pollingRemote.set(false);
+        }
+    }
+
+    /**
+     * 从存储重新读取信箱
+     *
+     * @return 是否已重新载入，本地有未写入的修改时返回false
+     */
+    private boolean reloadMailbox(PlayerMailbox mailbox) {
+        UUID owner = mailbox.getOwner();
+        long version;
+        synchronized (mailbox) {
+            if (mailbox.isDirty() || writeQueue.hasPending(owner)) {
+                return false;
+            }
+            version = mailbox.getVersion();
+        }
+
+        long storedVersion = dataManager.loadMailboxVersion(owner);
+        List<MailItem> mails;
+        try {
+            mails = dataManager.loadPlayerMailbox(owner);
+        } catch (IllegalStateException e) {
+            // 读取失败时保留缓存中的内容，下次轮询时重试
+            return false;
+        }
+        synchronized (mailbox) {
+            // 读取期间本地又有新的修改，下次轮询时重试
+            if (mailbox.getVersion() != version) {
+                return false;
+            }
+            int before = mailbox.getTotalCount();
+            mailbox.reload(mails, storedVersion);
+            recordCountChange(before, mailbox.getTotalCount());
+        }
+        return true;
+    }
+
+    /**
+     * 清理过期邮件
+     * 缓存中的信箱按摘要记录的最早邮件时间判断，只检查确实有过期邮件的信箱；
+     * 存储中的过期邮件在写入线程上按时间范围分批删除，每批之间间隔一段时间
+     */
+    public void expireMails() {
+        if (mailExpireMillis <= 0 || !expiring.compareAndSet(false, true)) {
+            return;
+        }
+        long cutoff = getExpiryCutoff();
+
+        int expired = 0;
+        for (PlayerMailbox mailbox : cache.values()) {
+            MailboxSummary summary = mailbox.getSummary();
+            if (summary.hasMail() && summary.getOldestTimestamp() < cutoff) {
+                expired += expireMailbox(mailbox, cutoff);
+            }
+        }
+        if (expired > 0) {
+            plugin.getLogger().info("已从缓存的信箱中删除 " + expired + " 封过期邮件");
+        }
+
+        deleteExpiredBatch(cutoff, 0);
+    }
+
+    private int expireMailbox(PlayerMailbox mailbox, long cutoff) {
+        synchronized (mailbox) {
+            Set<UUID> expiredIds = new HashSet<>();
+            for (MailItem mail : mailbox.getMails()) {
+                if (mail.getTimestamp() < cutoff) {
+                    expiredIds.add(mail.getId());
+                }
+            }
+            int before = mailbox.getTotalCount();
+            List<MailItem> removed = mailbox.removeAll(expiredIds);
+            if (removed.isEmpty()) {
+                return 0;
+            }
+            recordCountChange(before, mailbox.getTotalCount());
+            List<UUID> removedIds = new ArrayList<>(removed.size());
+            for (MailItem mail : removed) {
+                removedIds.add(mail.getId());
+            }
+            writeQueue.enqueueRemoveAll(mailbox, mailbox.markDirty(), removedIds);
+            return removed.size();
         }
     }
 
     /**
-     * 保存所有玩家的信箱数据
+     * 在写入线程上删除一批过期邮件，删满一批时稍后继续下一批
+     * 缓存的信箱已在内存中删除过期邮件并计入统计，先写入队列中的这些删除，存储中剩下的过期邮件再从统计中扣除；
+     * 统计基准载入时就已过期的邮件不在基准中，先删除这部分且不调整统计
+     */
+    private void deleteExpiredBatch(long cutoff, int deletedSoFar) {
+        writeQueue.submit(() -> {
+            int deleted = 0;
+            try {
+                if (deletedSoFar == 0) {
+                    writeQueue.flushAll();
+                }
+                long uncountedCutoff = Math.min(cutoff, statisticsCutoff);
+                MailStatistics removed = dataManager.deleteExpiredMails(uncountedCutoff, expireBatchSize);
+                if (removed.getTotalMails() == 0 && uncountedCutoff < cutoff) {
+                    removed = dataManager.deleteExpiredMails(cutoff, expireBatchSize);
+                    totalMailsDelta.addAndGet(-removed.getTotalMails());
+                    playersWithMailDelta.addAndGet(-removed.getPlayersWithMail());
+                }
+                deleted = (int) removed.getTotalMails();
+            } finally {
+                int total = deletedSoFar + deleted;
+                if (deleted >= expireBatchSize && plugin.isEnabled()) {
+                    Bukkit.getScheduler().runTaskLaterAsynchronously(plugin,
+                            () -> deleteExpiredBatch(cutoff, total), expireBatchDelayTicks);
+                } else {
+                    if (total > 0) {
+                        plugin.getLogger().info("已从存储中删除 " + total + " 封过期邮件");
+                    }
+                    expiring.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取过期时间点，早于该时间的邮件视为过期
+     *
+     * @return 过期时间点，未启用过期时返回Long.MIN_VALUE
+     */
+    public long getExpiryCutoff() {
+        return mailExpireMillis > 0 ? System.currentTimeMillis() - mailExpireMillis : Long.MIN_VALUE;
+    }
+
+    /**
+     * 在写入线程上清理不再被任何邮件引用的共享物品，与队列写入串行执行
+     */
+    public void scheduleItemCleanup() {
+        writeQueue.submit(() -> {
+            int purged = dataManager.purgeUnusedItems();
+            if (purged > 0) {
+                plugin.getLogger().info("已清理 " + purged + " 件未使用的共享物品");
+            }
+        });
+    }
+
+    /**
+     * 停用时写入队列中剩余的修改并关闭存储
      */
-    public void saveAllMailboxes() {
-        dataManager.saveAllMailboxes(playerMailboxes);
+    public void shutdown() {
+        // 不再接受新的载入，等待进行中的载入完成后再关闭写入队列
+        loader.shutdown();
+        try {
+            if (!loader.awaitTermination(5, TimeUnit.SECONDS)) {
+                loader.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 等待进行中的领取完成，已删除但无法发放的邮件在关闭存储前写回
+        claimer.shutdown();
+        try {
+            if (!claimer.awaitTermination(5, TimeUnit.SECONDS)) {
+                claimer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeQueue.close();
+        saveDirtyMailboxes();
+        if (journal != null) {
+            journal.close(writeQueue.getAppliedSeq());
+        }
+        dataManager.close();
+        nameIndex.close();
     }
 
     /**
@@ -146,8 +1391,11 @@ public class MailboxManager {
      * @param targetName 目标玩家名称
      */
     public void displayMailboxContents(CommandSender sender, UUID targetUUID, String targetName) {
-        loadPlayerMailbox(targetUUID);
-        List<MailItem> mails = playerMailboxes.getOrDefault(targetUUID, new ArrayList<>());
+        whenMailboxLoaded(targetUUID, sender, () -> printMailboxContents(sender, targetUUID, targetName));
+    }
+
+    private void printMailboxContents(CommandSender sender, UUID targetUUID, String targetName) {
+        List<MailItem> mails = getMailbox(targetUUID);
 
         sender.sendMessage(ChatColor.GOLD + "===== " + targetName + "的信箱内容 =====");
 
@@ -163,14 +1411,22 @@ public class MailboxManager {
 
                 sender.sendMessage(ChatColor.YELLOW.toString() + (i + 1) + ". " + ChatColor.WHITE +
                         itemName + " x" + item.getAmount() + ChatColor.GRAY +
-                        " (收到时间: " + dateFormat.format(new Date(mail.getTimestamp())) + ")");
+                        " (收到时间: " + MailboxUtils.formatTimestamp(mail.getTimestamp()) + ")");
             }
         }
     }
 
-    // GUI相关方法委托给GuiManager
+    // GUI相关方法委托给GuiManager，信箱尚未载入时先异步载入
     public void openMailboxGUI(Player player) {
-        guiManager.openMailboxGUI(player);
+        openMailboxGUI(player, 0);
+    }
+
+    public void openMailboxGUI(Player player, int page) {
+        whenMailboxLoaded(player.getUniqueId(), player, () -> {
+            if (player.isOnline()) {
+                guiManager.openMailboxGUI(player, page);
+            }
+        });
     }
 
     public void openAdminSendAllGUI(Player admin) {
@@ -182,12 +1438,28 @@ public class MailboxManager {
     }
 
     public void openAdminCheckMailboxGUI(Player admin, UUID targetUUID, String targetName) {
-        guiManager.openAdminCheckMailboxGUI(admin, targetUUID, targetName);
+        openAdminCheckMailboxGUI(admin, targetUUID, targetName, 0);
+    }
+
+    public void openAdminCheckMailboxGUI(Player admin, UUID targetUUID, String targetName, int page) {
+        whenMailboxLoaded(targetUUID, admin, () -> {
+            if (admin.isOnline()) {
+                guiManager.openAdminCheckMailboxGUI(admin, targetUUID, targetName, page);
+            }
+        });
+    }
+
+    public void refreshMailboxView(Player viewer, MailboxView view, int page) {
+        guiManager.refreshView(viewer, view, page);
+    }
+
+    public void refreshMailboxViews(UUID owner) {
+        guiManager.refreshViews(owner);
     }
 
     // Getter方法
-    public Map<UUID, List<MailItem>> getPlayerMailboxes() {
-        return playerMailboxes;
+    public MailboxCache getCache() {
+        return cache;
     }
 
     public Map<UUID, MailboxType> getOpenInventories() {
@@ -198,6 +1470,18 @@ public class MailboxManager {
         return targetPlayers;
     }
 
+    public PlayerNameIndex getNameIndex() {
+        return nameIndex;
+    }
+
+    public MailWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    public AutoSaveScheduler getAutoSave() {
+        return autoSave;
+    }
+
     public IDataManager getDataManager() {
         return dataManager;
     }
@@ -0,0 +1,108 @@
+package me.ninepin.mailBoxPlugin.manager;
+
+import me.ninepin.mailBoxPlugin.enums.MailboxType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.UUID;
+
+/**
+ * 信箱界面
+ * 作为背包的持有者，记录界面类型、所查看的信箱、当前页码以及每个格子对应的邮件
+ * 点击事件通过持有者识别界面，不再依赖标题文字
+ */
+public class MailboxView implements InventoryHolder {
+
+    private final MailboxType type;
+    private final UUID owner;
+    private final String ownerName;
+    private final boolean manager;
+    private final UUID[] slotMails = new UUID[GuiManager.PAGE_SIZE];
+    // 每个格子显示时所用的邮件物品，邮件ID不变但内容被替换时据此重新绘制
+    private final ItemStack[] slotSources = new ItemStack[GuiManager.PAGE_SIZE];
+    private Inventory inventory;
+    private int page;
+    private int pageCount;
+
+    /**
+     * 构造函数
+     * @param type 界面类型
+     * @param owner 信箱所属玩家UUID
+     * @param ownerName 信箱所属玩家名称
+     * @param manager 查看者是否可以修改信箱 (管理员模式)
+     */
+    public MailboxView(MailboxType type, UUID owner, String ownerName, boolean manager) {
+        this.type = type;
+        this.owner = owner;
+        this.ownerName = ownerName;
+        this.manager = manager;
+    }
+
+    @Override
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    void setInventory(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    public MailboxType getType() {
+        return type;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public boolean isManager() {
+        return manager;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * 获取格子中显示的邮件
+     * @param slot 格子
+     * @return 邮件ID，格子为空或不是邮件格子时返回null
+     */
+    public UUID getMailId(int slot) {
+        if (slot < 0 || slot >= slotMails.length) {
+            return null;
+        }
+        return slotMails[slot];
+    }
+
+    /**
+     * 获取格子显示时所用的邮件物品
+     * @param slot 格子
+     * @return 邮件物品，格子为空时返回null
+     */
+    ItemStack getSlotSource(int slot) {
+        return slotSources[slot];
+    }
+
+    void setSlotMail(int slot, UUID mailId, ItemStack source) {
+        slotMails[slot] = mailId;
+        slotSources[slot] = source;
+    }
+}
@@ -0,0 +1,245 @@
+package me.ninepin.mailBoxPlugin.manager;
+
+import org.bukkit.OfflinePlayer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * 玩家名称索引
+ * 保存不区分大小写的 名称 -> UUID 映射，查找为 O(1)，按前缀补全使用有序表
+ * 索引保存在一个只追加的文本文件中，每行 "UUID 名称"，后面的行覆盖前面的行；启动时重复行过多则重写文件
+ */
+public class PlayerNameIndex {
+
+    /**
+     * 补全时最多返回的名称数量
+     */
+    public static final int MAX_COMPLETIONS = 50;
+
+    private final File file;
+    private final Logger logger;
+
+    // 小写名称 -> UUID
+    private final Map<String, UUID> byName = new HashMap<>();
+    // UUID -> 原始大小写的名称，玩家改名时用于移除旧名称
+    private final Map<UUID, String> byUUID = new HashMap<>();
+    // 小写名称 -> 原始大小写的名称，用于前缀查询
+    private final TreeMap<String, String> sortedNames = new TreeMap<>();
+
+    private BufferedWriter writer;
+
+    /**
+     * 构造函数
+     * @param file 索引文件
+     * @param logger 日志记录器
+     */
+    public PlayerNameIndex(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * 从文件载入索引
+     * @return 索引文件是否已经存在 (不存在时需要从服务器的玩家数据中建立)
+     */
+    public synchronized boolean load() {
+        boolean exists = file.exists();
+        int lines = 0;
+        if (exists) {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf(' ');
+                    if (separator <= 0 || separator == line.length() - 1) {
+                        continue;
+                    }
+                    try {
+                        put(UUID.fromString(line.substring(0, separator)), line.substring(separator + 1));
+                        lines++;
+                    } catch (IllegalArgumentException e) {
+                        // 写入中断留下的残行
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("读取玩家名称索引时出错: " + e.getMessage());
+            }
+        }
+
+        // 改名留下的旧行过多时重写文件
+        if (lines > byUUID.size() * 2 + 1000) {
+            rewrite();
+        }
+        // 索引文件在建立完成后才创建，建立期间停服时下次启动会重新建立；在此之前的名称更新只保存在内存中，建立时一并写入
+        if (exists) {
+            openWriter();
+        }
+        return exists;
+    }
+
+    /**
+     * 用服务器已知的所有玩家建立索引，只在索引文件不存在时调用一次
+     * @param players 离线玩家
+     */
+    public void seed(OfflinePlayer[] players) {
+        int added = 0;
+        synchronized (this) {
+            for (OfflinePlayer player : players) {
+                String name = player.getName();
+                if (name != null && !byUUID.containsKey(player.getUniqueId())) {
+                    put(player.getUniqueId(), name);
+                    added++;
+                }
+            }
+            if (!rewrite()) {
+                return;
+            }
+            openWriter();
+        }
+        logger.info("已建立玩家名称索引，共 " + added + " 名玩家");
+    }
+
+    /**
+     * 记录玩家当前的名称，名称没有变化时不写入文件
+     * @param uuid 玩家UUID
+     * @param name 玩家名称
+     */
+    public synchronized void update(UUID uuid, String name) {
+        if (name.equals(byUUID.get(uuid))) {
+            return;
+        }
+        put(uuid, name);
+        if (writer != null) {
+            try {
+                writer.write(uuid + " " + name);
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                logger.warning("写入玩家名称索引时出错: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按名称查找玩家UUID，不区分大小写
+     * @param name 玩家名称
+     * @return 玩家UUID，未知的名称返回null
+     */
+    public synchronized UUID lookup(String name) {
+        return byName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 查找以指定前缀开头的玩家名称，不区分大小写
+     * @param prefix 前缀
+     * @param limit 最多返回的数量
+     * @return 按字母顺序排列的名称
+     */
+    public synchronized List<String> complete(String prefix, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        List<String> names = new ArrayList<>();
+        for (String name : sortedNames.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            if (names.size() >= limit) {
+                break;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    public synchronized int size() {
+        return byUUID.size();
+    }
+
+    /**
+     * 关闭索引文件
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warning("关闭玩家名称索引时出错: " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    private void put(UUID uuid, String name) {
+        String previous = byUUID.put(uuid, name);
+        if (previous != null) {
+            String previousKey = previous.toLowerCase(Locale.ROOT);
+            if (uuid.equals(byName.get(previousKey))) {
+                byName.remove(previousKey);
+                sortedNames.remove(previousKey);
+            }
+        }
+
+        String key = name.toLowerCase(Locale.ROOT);
+        UUID displaced = byName.put(key, uuid);
+        if (displaced != null && !displaced.equals(uuid)) {
+            // 名称已被新玩家使用，移除旧玩家的记录，重写文件时不会再写出同名的两行；旧玩家下次登录时重新记录
+            byUUID.remove(displaced);
+        }
+        sortedNames.put(key, name);
+    }
+
+    /**
+     * 将当前索引完整写入临时文件后替换原文件
+     * @return 是否写入成功
+     */
+    private boolean rewrite() {
+        close();
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<UUID, String> entry : byUUID.entrySet()) {
+                out.write(entry.getKey() + " " + entry.getValue());
+                out.newLine();
+            }
+        } catch (IOException e) {
+            logger.warning("重写玩家名称索引时出错: " + e.getMessage());
+            return false;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            logger.warning("替换玩家名称索引时出错: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void openWriter() {
+        if (writer != null) {
+            return;
+        }
+        try {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warning("打开玩家名称索引时出错: " + e.getMessage());
+        }
+    }
+}
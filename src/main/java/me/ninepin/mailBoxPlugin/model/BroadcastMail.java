@@ -0,0 +1,49 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * 全服广播邮件实体类
+ * 广播邮件只保存一份，玩家访问信箱时再按需放入各自的信箱
+ */
+public class BroadcastMail {
+    private final long id;
+    private final ItemStack item;
+    private final long timestamp;
+
+    /**
+     * 构造函数
+     * @param id 广播ID (递增)
+     * @param item 物品
+     * @param timestamp 发送时间戳
+     */
+    public BroadcastMail(long id, ItemStack item, long timestamp) {
+        this.id = id;
+        this.item = item;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * 获取广播ID
+     * @return 广播ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 获取物品
+     * @return ItemStack物品
+     */
+    public ItemStack getItem() {
+        return item;
+    }
+
+    /**
+     * 获取发送时间戳
+     * @return 时间戳
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
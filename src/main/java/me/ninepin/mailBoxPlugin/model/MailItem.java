@@ -2,29 +2,53 @@ package me.ninepin.mailBoxPlugin.model;
 
 import org.bukkit.inventory.ItemStack;
 
+import java.util.UUID;
+
 /**
  * 邮件项目实体类
- * 封装邮件的基本信息
+ * 封装邮件的基本信息，创建后不可修改
  */
 public class MailItem {
-    private ItemStack item;
-    private long timestamp;
-    private boolean isRead;
+    private final UUID id;
+    private final ItemStack item;
+    private final long timestamp;
+    private final boolean isRead;
 
     /**
-     * 构造函数
+     * 构造函数，为新邮件生成唯一ID
      * @param item 物品
      * @param timestamp 时间戳
      * @param isRead 是否已读
      */
     public MailItem(ItemStack item, long timestamp, boolean isRead) {
+        this(UUID.randomUUID(), item, timestamp, isRead);
+    }
+
+    /**
+     * 构造函数，用于从存储中还原邮件
+     * @param id 邮件ID
+     * @param item 物品
+     * @param timestamp 时间戳
+     * @param isRead 是否已读
+     */
+    public MailItem(UUID id, ItemStack item, long timestamp, boolean isRead) {
+        this.id = id;
         this.item = item;
         this.timestamp = timestamp;
         this.isRead = isRead;
     }
 
+    /**
+     * 获取邮件ID
+     * @return 持久化的邮件唯一ID
+     */
+    public UUID getId() {
+        return id;
+    }
+
     /**
      * 获取物品
+     * 相同物品的邮件可能共享同一个实例，修改或交给玩家前必须先复制
      * @return ItemStack物品
      */
     public ItemStack getItem() {
@@ -48,10 +72,11 @@ public class MailItem {
     }
 
     /**
-     * 设置已读状态
-     * @param read 已读状态
+     * 获取标记为已读的邮件副本
+     * 邮件对象不可变，可以安全地在多个线程和信箱快照之间共享
+     * @return 已读的邮件，本身已读时返回自身
      */
-    public void setRead(boolean read) {
-        isRead = read;
+    public MailItem asRead() {
+        return isRead ? this : new MailItem(id, item, timestamp, true);
     }
 }
\ No newline at end of file
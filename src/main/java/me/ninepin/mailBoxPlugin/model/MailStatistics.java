@@ -0,0 +1,27 @@
+package me.ninepin.mailBoxPlugin.model;
+
+/**
+ * 全服邮件统计实体类
+ */
+public class MailStatistics {
+    private final long totalMails;
+    private final int playersWithMail;
+
+    /**
+     * 构造函数
+     * @param totalMails 全服邮件总数
+     * @param playersWithMail 拥有邮件的玩家数量
+     */
+    public MailStatistics(long totalMails, int playersWithMail) {
+        this.totalMails = totalMails;
+        this.playersWithMail = playersWithMail;
+    }
+
+    public long getTotalMails() {
+        return totalMails;
+    }
+
+    public int getPlayersWithMail() {
+        return playersWithMail;
+    }
+}
@@ -0,0 +1,79 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import java.util.*;
+
+/**
+ * 信箱变更集实体类
+ * 封装一次批量写入中单个玩家信箱的新增、更新、删除和已读变更
+ */
+public class MailboxChangeSet {
+    private final List<MailItem> appended = new ArrayList<>();
+    private final List<MailItem> updated = new ArrayList<>();
+    private final Set<UUID> removed = new LinkedHashSet<>();
+    private final Set<UUID> read = new LinkedHashSet<>();
+    private long broadcastWatermark = -1;
+
+    /**
+     * 获取新增的邮件
+     * @return 新增邮件列表
+     */
+    public List<MailItem> getAppended() {
+        return appended;
+    }
+
+    /**
+     * 获取内容被更新的邮件
+     * @return 更新邮件列表
+     */
+    public List<MailItem> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * 获取被删除的邮件ID
+     * @return 删除的邮件ID集合
+     */
+    public Set<UUID> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * 获取被标记为已读的邮件ID
+     * @return 已读的邮件ID集合
+     */
+    public Set<UUID> getRead() {
+        return read;
+    }
+
+    /**
+     * 获取需要写入的广播水位
+     * @return 广播水位，没有变更时返回-1
+     */
+    public long getBroadcastWatermark() {
+        return broadcastWatermark;
+    }
+
+    /**
+     * 设置需要写入的广播水位
+     * @param broadcastWatermark 玩家已接收的最后一封广播ID
+     */
+    public void setBroadcastWatermark(long broadcastWatermark) {
+        this.broadcastWatermark = broadcastWatermark;
+    }
+
+    /**
+     * 获取变更的总行数
+     * @return 变更行数
+     */
+    public int size() {
+        return appended.size() + updated.size() + removed.size() + read.size();
+    }
+
+    /**
+     * 检查变更集是否为空
+     * @return 是否为空
+     */
+    public boolean isEmpty() {
+        return size() == 0 && broadcastWatermark < 0;
+    }
+}
@@ -0,0 +1,143 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 信箱合并工具
+ * 按邮件ID逐封比较邮件列表，用于保存信箱时与其他写入方的修改合并，以及计算两个版本之间需要写入的变更
+ */
+public final class MailboxMerge {
+
+    private MailboxMerge() {
+    }
+
+    /**
+     * 三方合并：以上次与存储同步时的列表为基准，合并本地和存储中各自的修改
+     * 一方删除的邮件在结果中删除 (删除优先，避免已在其他地方领取的物品再次出现)；
+     * 双方都保留的邮件，本地修改过物品时以本地为准，否则采用存储中的内容
+     *
+     * @param base   上次与存储同步时的邮件列表
+     * @param local  本地当前的邮件列表
+     * @param remote 存储中当前的邮件列表
+     * @return 合并后的邮件列表，本地邮件的顺序保持不变，存储中新增的邮件排在最后
+     */
+    public static List<MailItem> merge(List<MailItem> base, List<MailItem> local, List<MailItem> remote) {
+        Map<UUID, MailItem> baseById = index(base);
+        Map<UUID, MailItem> remoteById = index(remote);
+        List<MailItem> merged = new ArrayList<>(Math.max(local.size(), remote.size()));
+        Set<UUID> localIds = new HashSet<>();
+
+        for (MailItem mail : local) {
+            localIds.add(mail.getId());
+            MailItem baseMail = baseById.get(mail.getId());
+            MailItem remoteMail = remoteById.get(mail.getId());
+            if (baseMail == null) {
+                // 本地新增的邮件
+                merged.add(mail);
+            } else if (remoteMail != null) {
+                merged.add(resolve(baseMail, mail, remoteMail));
+            }
+            // 其他写入方已删除的邮件不再保留
+        }
+
+        for (MailItem mail : remote) {
+            // 其他写入方新增的邮件；本地已删除的邮件不会重新加入
+            if (!localIds.contains(mail.getId()) && !baseById.containsKey(mail.getId())) {
+                merged.add(mail);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 计算从一个邮件列表变为另一个列表需要写入的变更
+     *
+     * @param from 原邮件列表
+     * @param to   新邮件列表
+     * @return 变更集
+     */
+    public static MailboxChangeSet diff(List<MailItem> from, List<MailItem> to) {
+        Map<UUID, MailItem> fromById = index(from);
+        MailboxChangeSet changes = new MailboxChangeSet();
+        Set<UUID> kept = new HashSet<>();
+
+        for (MailItem mail : to) {
+            MailItem old = fromById.get(mail.getId());
+            if (old == null) {
+                changes.getAppended().add(mail);
+                continue;
+            }
+            kept.add(mail.getId());
+            if (old == mail) {
+                continue;
+            }
+            boolean sameContent = old.getTimestamp() == mail.getTimestamp()
+                    && (old.getItem() == mail.getItem() || old.getItem().equals(mail.getItem()));
+            if (sameContent && old.isRead() == mail.isRead()) {
+                continue;
+            }
+            if (sameContent && mail.isRead()) {
+                changes.getRead().add(mail.getId());
+            } else {
+                changes.getUpdated().add(mail);
+            }
+        }
+
+        for (MailItem mail : from) {
+            if (!kept.contains(mail.getId())) {
+                changes.getRemoved().add(mail.getId());
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 将变更集应用到邮件列表上，与存储写入变更集的顺序相同：删除、替换、标记已读、追加
+     *
+     * @param mails   原邮件列表
+     * @param changes 变更集
+     * @return 应用变更后的新列表
+     */
+    public static List<MailItem> apply(List<MailItem> mails, MailboxChangeSet changes) {
+        Map<UUID, MailItem> updated = index(changes.getUpdated());
+        List<MailItem> result = new ArrayList<>(mails.size() + changes.getAppended().size());
+        for (MailItem mail : mails) {
+            if (changes.getRemoved().contains(mail.getId())) {
+                continue;
+            }
+            MailItem current = updated.getOrDefault(mail.getId(), mail);
+            result.add(changes.getRead().contains(mail.getId()) && !current.isRead() ? current.asRead() : current);
+        }
+        result.addAll(changes.getAppended());
+        return result;
+    }
+
+    /**
+     * 合并双方都保留的同一封邮件
+     */
+    private static MailItem resolve(MailItem base, MailItem local, MailItem remote) {
+        // 邮件不可变，本地未修改物品时与基准共享同一个物品实例
+        if (local.getItem() != base.getItem()) {
+            return local;
+        }
+        boolean read = local.isRead() || remote.isRead();
+        if (remote.isRead() == read) {
+            return remote;
+        }
+        return remote.asRead();
+    }
+
+    private static Map<UUID, MailItem> index(List<MailItem> mails) {
+        Map<UUID, MailItem> byId = new HashMap<>(Math.max(16, mails.size() * 2));
+        for (MailItem mail : mails) {
+            byId.put(mail.getId(), mail);
+        }
+        return byId;
+    }
+}
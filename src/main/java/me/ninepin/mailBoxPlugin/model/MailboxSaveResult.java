@@ -0,0 +1,66 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import java.util.List;
+
+/**
+ * 信箱保存结果实体类
+ * 记录保存后存储中的信箱版本，以及与其他写入方合并后实际写入的邮件列表
+ */
+public class MailboxSaveResult {
+    public static final MailboxSaveResult FAILED = new MailboxSaveResult(false, -1, null);
+
+    private final boolean saved;
+    private final long version;
+    private final List<MailItem> mergedMails;
+
+    /**
+     * 构造函数
+     * @param saved 是否保存成功
+     * @param version 保存后存储中的信箱版本
+     * @param mergedMails 与其他写入方的修改合并后写入的邮件列表，没有发生合并时为null
+     */
+    public MailboxSaveResult(boolean saved, long version, List<MailItem> mergedMails) {
+        this.saved = saved;
+        this.version = version;
+        this.mergedMails = mergedMails;
+    }
+
+    /**
+     * 保存成功，没有与其他写入方冲突
+     * @param version 保存后的版本
+     * @return 保存结果
+     */
+    public static MailboxSaveResult saved(long version) {
+        return new MailboxSaveResult(true, version, null);
+    }
+
+    /**
+     * 保存成功，写入的是与其他写入方合并后的邮件列表
+     * @param version 保存后的版本
+     * @param mergedMails 合并后的邮件列表
+     * @return 保存结果
+     */
+    public static MailboxSaveResult merged(long version, List<MailItem> mergedMails) {
+        return new MailboxSaveResult(true, version, mergedMails);
+    }
+
+    public boolean isSaved() {
+        return saved;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<MailItem> getMergedMails() {
+        return mergedMails;
+    }
+
+    /**
+     * 检查保存时是否与其他写入方的修改合并
+     * @return 是否发生了合并
+     */
+    public boolean isMerged() {
+        return mergedMails != null;
+    }
+}
@@ -0,0 +1,82 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 信箱快照实体类
+ * 表示信箱在某个版本时的不可变邮件列表，供异步保存等非主线程读取方使用
+ */
+public class MailboxSnapshot {
+    private final UUID owner;
+    private final List<MailItem> mails;
+    private final long version;
+    private final List<MailItem> storedMails;
+    private final long storedVersion;
+
+    /**
+     * 构造函数
+     * @param owner 信箱所属玩家UUID
+     * @param mails 不可变的邮件列表
+     * @param version 快照对应的信箱版本号
+     */
+    public MailboxSnapshot(UUID owner, List<MailItem> mails, long version) {
+        this(owner, mails, version, mails, -1);
+    }
+
+    /**
+     * 构造函数
+     * @param owner 信箱所属玩家UUID
+     * @param mails 不可变的邮件列表
+     * @param version 快照对应的信箱版本号
+     * @param storedMails 上次与存储同步时的邮件列表
+     * @param storedVersion 上次与存储同步时存储中的信箱版本，未知时为-1
+     */
+    public MailboxSnapshot(UUID owner, List<MailItem> mails, long version, List<MailItem> storedMails, long storedVersion) {
+        this.owner = owner;
+        this.mails = mails;
+        this.version = version;
+        this.storedMails = storedMails;
+        this.storedVersion = storedVersion;
+    }
+
+    /**
+     * 获取信箱所属玩家UUID
+     * @return 玩家UUID
+     */
+    public UUID getOwner() {
+        return owner;
+    }
+
+    /**
+     * 获取邮件列表
+     * @return 不可变的邮件列表
+     */
+    public List<MailItem> getMails() {
+        return mails;
+    }
+
+    /**
+     * 获取快照对应的版本号
+     * @return 版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 获取上次与存储同步时的邮件列表，作为保存时合并的基准
+     * @return 不可变的邮件列表
+     */
+    public List<MailItem> getStoredMails() {
+        return storedMails;
+    }
+
+    /**
+     * 获取上次与存储同步时存储中的信箱版本
+     * @return 存储版本，未知时为-1
+     */
+    public long getStoredVersion() {
+        return storedVersion;
+    }
+}
@@ -0,0 +1,137 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 信箱摘要实体类
+ * 记录信箱的邮件数量和时间范围，随信箱修改一并更新，供占位符直接读取
+ */
+public class MailboxSummary {
+    public static final MailboxSummary EMPTY = new MailboxSummary(0, 0, 0L, 0L);
+
+    private final int totalCount;
+    private final int unreadCount;
+    private final long newestTimestamp;
+    private final long oldestTimestamp;
+
+    /**
+     * 构造函数
+     * @param totalCount 邮件总数
+     * @param unreadCount 未读邮件数量
+     * @param newestTimestamp 最新邮件的时间戳，没有邮件时为0
+     * @param oldestTimestamp 最旧邮件的时间戳，没有邮件时为0
+     */
+    public MailboxSummary(int totalCount, int unreadCount, long newestTimestamp, long oldestTimestamp) {
+        this.totalCount = totalCount;
+        this.unreadCount = unreadCount;
+        this.newestTimestamp = newestTimestamp;
+        this.oldestTimestamp = oldestTimestamp;
+    }
+
+    /**
+     * 根据邮件列表计算摘要
+     * @param mails 邮件列表
+     * @return 信箱摘要
+     */
+    public static MailboxSummary of(Iterable<MailItem> mails) {
+        int total = 0;
+        int unread = 0;
+        long newest = Long.MIN_VALUE;
+        long oldest = Long.MAX_VALUE;
+        for (MailItem mail : mails) {
+            total++;
+            if (!mail.isRead()) {
+                unread++;
+            }
+            newest = Math.max(newest, mail.getTimestamp());
+            oldest = Math.min(oldest, mail.getTimestamp());
+        }
+        return total == 0 ? EMPTY : new MailboxSummary(total, unread, newest, oldest);
+    }
+
+    /**
+     * 计算加入一封邮件后的摘要
+     * @param mail 新邮件
+     * @return 新的信箱摘要
+     */
+    public MailboxSummary plus(MailItem mail) {
+        long timestamp = mail.getTimestamp();
+        return new MailboxSummary(totalCount + 1,
+                unreadCount + (mail.isRead() ? 0 : 1),
+                totalCount == 0 ? timestamp : Math.max(newestTimestamp, timestamp),
+                totalCount == 0 ? timestamp : Math.min(oldestTimestamp, timestamp));
+    }
+
+    /**
+     * 计算移除若干封邮件后的摘要
+     * 数量直接相减；只有被移除的邮件是最新或最旧的一封时才需要遍历剩余邮件重新计算时间范围
+     * @param removed 被移除的邮件
+     * @param remaining 移除后剩余的邮件列表
+     * @return 新的信箱摘要
+     */
+    public MailboxSummary minus(Collection<MailItem> removed, List<MailItem> remaining) {
+        if (remaining.isEmpty()) {
+            return EMPTY;
+        }
+        int unread = unreadCount;
+        boolean boundary = false;
+        for (MailItem mail : removed) {
+            if (!mail.isRead()) {
+                unread--;
+            }
+            boundary |= mail.getTimestamp() >= newestTimestamp || mail.getTimestamp() <= oldestTimestamp;
+        }
+        if (!boundary) {
+            return new MailboxSummary(remaining.size(), Math.max(0, unread), newestTimestamp, oldestTimestamp);
+        }
+
+        long newest = Long.MIN_VALUE;
+        long oldest = Long.MAX_VALUE;
+        for (MailItem mail : remaining) {
+            newest = Math.max(newest, mail.getTimestamp());
+            oldest = Math.min(oldest, mail.getTimestamp());
+        }
+        return new MailboxSummary(remaining.size(), Math.max(0, unread), newest, oldest);
+    }
+
+    /**
+     * 计算一封已读邮件重新变为未读后的摘要
+     * @return 新的信箱摘要
+     */
+    public MailboxSummary plusUnread() {
+        return new MailboxSummary(totalCount, Math.min(totalCount, unreadCount + 1), newestTimestamp, oldestTimestamp);
+    }
+
+    /**
+     * 获取全部标记为已读后的摘要
+     * @return 新的信箱摘要
+     */
+    public MailboxSummary allRead() {
+        return unreadCount == 0 ? this : new MailboxSummary(totalCount, 0, newestTimestamp, oldestTimestamp);
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public long getNewestTimestamp() {
+        return newestTimestamp;
+    }
+
+    public long getOldestTimestamp() {
+        return oldestTimestamp;
+    }
+
+    /**
+     * 检查信箱中是否有邮件
+     * @return 是否有邮件
+     */
+    public boolean hasMail() {
+        return totalCount > 0;
+    }
+}
@@ -0,0 +1,495 @@
+package me.ninepin.mailBoxPlugin.model;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 玩家信箱实体类
+ * 封装单个玩家的邮件列表以及缓存所需的访问信息
+ * 邮件列表采用写时复制，读取方 (异步保存、PlaceholderAPI) 无需加锁即可获得一致的列表
+ */
+public class PlayerMailbox {
+    private final UUID owner;
+    private volatile List<MailItem> mails;
+    private volatile MailboxSummary summary;
+    private volatile long lastAccess;
+    private long version;
+    private long persistedVersion;
+    private volatile long broadcastWatermark = -1;
+    // 上次与存储同步 (载入或整体保存) 时的邮件列表和存储中的信箱版本，保存时以此判断和合并其他写入方的修改
+    private List<MailItem> storedMails;
+    private long storedVersion;
+    // 相同物品 -> 最近一封未满物品堆在邮件列表中的位置，第一次合并时才建立；
+    // 追加邮件时随之更新，删除邮件会使之后的位置移动，此时丢弃索引，下次合并时重建
+    private Map<StackKey, Integer> openStacks;
+
+    /**
+     * 构造函数
+     * @param owner 信箱所属玩家UUID
+     * @param mails 邮件列表
+     */
+    public PlayerMailbox(UUID owner, List<MailItem> mails) {
+        this(owner, mails, -1);
+    }
+
+    /**
+     * 构造函数
+     * @param owner 信箱所属玩家UUID
+     * @param mails 邮件列表
+     * @param storedVersion 读取邮件时存储中的信箱版本，未知时为-1
+     */
+    public PlayerMailbox(UUID owner, List<MailItem> mails, long storedVersion) {
+        this.owner = owner;
+        this.mails = Collections.unmodifiableList(new ArrayList<>(mails));
+        this.summary = MailboxSummary.of(this.mails);
+        this.lastAccess = System.currentTimeMillis();
+        this.storedMails = this.mails;
+        this.storedVersion = storedVersion;
+    }
+
+    /**
+     * 获取信箱所属玩家UUID
+     * @return 玩家UUID
+     */
+    public UUID getOwner() {
+        return owner;
+    }
+
+    /**
+     * 获取邮件列表
+     * @return 当前邮件列表的不可变视图，之后的修改不会影响已返回的列表
+     */
+    public List<MailItem> getMails() {
+        return mails;
+    }
+
+    /**
+     * 获取信箱摘要
+     * 摘要随每次修改同步更新，读取时无需遍历邮件列表
+     * @return 信箱摘要
+     */
+    public MailboxSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * 获取未读邮件数量
+     * @return 未读邮件数量
+     */
+    public int getUnreadCount() {
+        return summary.getUnreadCount();
+    }
+
+    /**
+     * 获取邮件总数
+     * @return 邮件总数
+     */
+    public int getTotalCount() {
+        return summary.getTotalCount();
+    }
+
+    /**
+     * 添加邮件
+     * @param mail 邮件
+     */
+    public synchronized void add(MailItem mail) {
+        List<MailItem> updated = new ArrayList<>(mails.size() + 1);
+        updated.addAll(mails);
+        updated.add(mail);
+        mails = Collections.unmodifiableList(updated);
+        summary = summary.plus(mail);
+        indexStack(mail, updated.size() - 1);
+    }
+
+    /**
+     * 删除信箱中最早的一封邮件并添加新邮件，邮件总数不变
+     * @param mail 新邮件
+     * @return 被删除的邮件，信箱为空时返回null
+     */
+    public synchronized MailItem replaceOldest(MailItem mail) {
+        List<MailItem> current = mails;
+        if (current.isEmpty()) {
+            add(mail);
+            return null;
+        }
+        MailItem oldest = current.get(0);
+        List<MailItem> updated = new ArrayList<>(current.size());
+        updated.addAll(current.subList(1, current.size()));
+        updated.add(mail);
+        mails = Collections.unmodifiableList(updated);
+        summary = summary.minus(Collections.singletonList(oldest), current.subList(1, current.size())).plus(mail);
+        openStacks = null;
+        return oldest;
+    }
+
+    /**
+     * 将物品合并到信箱中相同且未满的物品堆
+     * 通过未满物品堆索引直接取得合并目标的位置，不遍历邮件列表查找
+     * @param item 要合并的物品，其数量会减去已合并的数量
+     * @return 合并后的邮件 (标记为未读)，没有可合并的物品堆时返回null
+     */
+    public synchronized MailItem merge(ItemStack item) {
+        List<MailItem> current = mails;
+        if (openStacks == null) {
+            openStacks = new HashMap<>();
+            for (int i = 0; i < current.size(); i++) {
+                indexStack(current.get(i), i);
+            }
+        }
+
+        StackKey key = new StackKey(item);
+        Integer position = openStacks.get(key);
+        if (position == null) {
+            return null;
+        }
+        MailItem target = current.get(position);
+        ItemStack stack = target.getItem();
+        int moved = Math.min(item.getAmount(), stack.getMaxStackSize() - stack.getAmount());
+        if (moved <= 0) {
+            openStacks.remove(key);
+            return null;
+        }
+
+        // 邮件中的物品可能被共享，合并时使用新的物品实例
+        ItemStack merged = stack.clone();
+        merged.setAmount(stack.getAmount() + moved);
+        item.setAmount(item.getAmount() - moved);
+        MailItem mergedMail = new MailItem(target.getId(), merged, target.getTimestamp(), false);
+
+        // 邮件列表采用写时复制，替换一封邮件仍需复制列表
+        List<MailItem> updated = new ArrayList<>(current);
+        updated.set(position, mergedMail);
+        mails = Collections.unmodifiableList(updated);
+        summary = target.isRead() ? summary.plusUnread() : summary;
+        if (merged.getAmount() >= merged.getMaxStackSize()) {
+            openStacks.remove(key);
+        }
+        return mergedMail;
+    }
+
+    /**
+     * 合并信箱中所有相同且未满的物品堆，合并后变空的邮件被删除
+     * @return 内容被更新的邮件和被删除的邮件ID
+     */
+    public synchronized MailboxChangeSet mergeStacks() {
+        MailboxChangeSet changes = new MailboxChangeSet();
+        Map<StackKey, Integer> openPositions = new HashMap<>();
+        List<MailItem> updated = new ArrayList<>(mails);
+        Map<UUID, MailItem> changed = new HashMap<>();
+
+        for (int i = 0; i < updated.size(); i++) {
+            MailItem mail = updated.get(i);
+            ItemStack stack = mail.getItem();
+            if (stack.getAmount() >= stack.getMaxStackSize()) {
+                continue;
+            }
+            StackKey key = new StackKey(stack);
+            Integer position = openPositions.get(key);
+            if (position == null) {
+                openPositions.put(key, i);
+                continue;
+            }
+
+            // 合并到之前未满的物品堆
+            MailItem target = updated.get(position);
+            ItemStack targetStack = target.getItem();
+            int moved = Math.min(stack.getAmount(), targetStack.getMaxStackSize() - targetStack.getAmount());
+            ItemStack merged = targetStack.clone();
+            merged.setAmount(targetStack.getAmount() + moved);
+            target = new MailItem(target.getId(), merged, target.getTimestamp(), target.isRead() && mail.isRead());
+            updated.set(position, target);
+            changed.put(target.getId(), target);
+            if (merged.getAmount() >= merged.getMaxStackSize()) {
+                openPositions.remove(key);
+            }
+
+            if (moved >= stack.getAmount()) {
+                updated.set(i, null);
+                changes.getRemoved().add(mail.getId());
+            } else {
+                ItemStack rest = stack.clone();
+                rest.setAmount(stack.getAmount() - moved);
+                MailItem restMail = new MailItem(mail.getId(), rest, mail.getTimestamp(), mail.isRead());
+                updated.set(i, restMail);
+                changed.put(restMail.getId(), restMail);
+                openPositions.put(key, i);
+            }
+        }
+
+        if (changes.getRemoved().isEmpty() && changed.isEmpty()) {
+            return changes;
+        }
+        List<MailItem> compacted = new ArrayList<>(updated.size());
+        for (MailItem mail : updated) {
+            if (mail != null) {
+                compacted.add(mail);
+            }
+        }
+        changes.getUpdated().addAll(changed.values());
+        mails = Collections.unmodifiableList(compacted);
+        summary = MailboxSummary.of(mails);
+        openStacks = null;
+        return changes;
+    }
+
+    /**
+     * 删除最早的邮件，直到邮件数量不超过上限
+     * @param maxMails 邮件数量上限
+     * @return 被删除的邮件
+     */
+    public synchronized List<MailItem> trimOldest(int maxMails) {
+        List<MailItem> current = mails;
+        int excess = current.size() - maxMails;
+        if (excess <= 0) {
+            return Collections.emptyList();
+        }
+        List<MailItem> removed = new ArrayList<>(current.subList(0, excess));
+        mails = Collections.unmodifiableList(new ArrayList<>(current.subList(excess, current.size())));
+        summary = summary.minus(removed, mails);
+        openStacks = null;
+        return removed;
+    }
+
+    /**
+     * 按邮件ID移除邮件
+     * @param mailId 邮件ID
+     * @return 被移除的邮件，不存在时返回null
+     */
+    public synchronized MailItem remove(UUID mailId) {
+        List<MailItem> current = mails;
+        for (int i = 0; i < current.size(); i++) {
+            MailItem mail = current.get(i);
+            if (mail.getId().equals(mailId)) {
+                List<MailItem> updated = new ArrayList<>(current);
+                updated.remove(i);
+                mails = Collections.unmodifiableList(updated);
+                summary = summary.minus(Collections.singletonList(mail), mails);
+                openStacks = null;
+                return mail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一次移除多封邮件，只复制一次邮件列表
+     * @param mailIds 邮件ID
+     * @return 实际被移除的邮件
+     */
+    public synchronized List<MailItem> removeAll(Set<UUID> mailIds) {
+        List<MailItem> removed = new ArrayList<>();
+        List<MailItem> updated = new ArrayList<>(mails.size());
+        for (MailItem mail : mails) {
+            if (mailIds.contains(mail.getId())) {
+                removed.add(mail);
+            } else {
+                updated.add(mail);
+            }
+        }
+        if (!removed.isEmpty()) {
+            mails = Collections.unmodifiableList(updated);
+            summary = summary.minus(removed, mails);
+            openStacks = null;
+        }
+        return removed;
+    }
+
+    /**
+     * 将所有未读邮件标记为已读
+     * @return 被标记的邮件ID
+     */
+    public synchronized List<UUID> markAllRead() {
+        List<UUID> readIds = new ArrayList<>();
+        List<MailItem> updated = new ArrayList<>(mails.size());
+        for (MailItem mail : mails) {
+            if (!mail.isRead()) {
+                readIds.add(mail.getId());
+            }
+            updated.add(mail.asRead());
+        }
+        if (!readIds.isEmpty()) {
+            mails = Collections.unmodifiableList(updated);
+            summary = summary.allRead();
+        }
+        return readIds;
+    }
+
+    /**
+     * 用从存储重新读取的邮件替换整个邮件列表 (其他服务器修改了该信箱)
+     * @param reloaded 存储中的邮件列表
+     * @param reloadedVersion 读取邮件时存储中的信箱版本
+     */
+    public synchronized void reload(List<MailItem> reloaded, long reloadedVersion) {
+        mails = Collections.unmodifiableList(new ArrayList<>(reloaded));
+        summary = MailboxSummary.of(mails);
+        openStacks = null;
+        storedMails = mails;
+        storedVersion = reloadedVersion;
+    }
+
+    /**
+     * 记录整个信箱已保存，并采用保存时合并进来的其他写入方的修改
+     * 保存期间本地的新修改与合并结果再做一次三方合并，不会丢失
+     * @param snapshot 保存时使用的快照
+     * @param result 保存结果
+     */
+    public synchronized void markStored(MailboxSnapshot snapshot, MailboxSaveResult result) {
+        markPersisted(snapshot.getVersion());
+        storedVersion = result.getVersion();
+        if (!result.isMerged()) {
+            storedMails = snapshot.getMails();
+            return;
+        }
+        storedMails = Collections.unmodifiableList(new ArrayList<>(result.getMergedMails()));
+        mails = Collections.unmodifiableList(MailboxMerge.merge(snapshot.getMails(), mails, storedMails));
+        summary = MailboxSummary.of(mails);
+        openStacks = null;
+    }
+
+    /**
+     * 获取邮件列表和版本号的一致快照
+     * @return 信箱快照
+     */
+    public synchronized MailboxSnapshot snapshot() {
+        return new MailboxSnapshot(owner, mails, version, storedMails, storedVersion);
+    }
+
+    /**
+     * 获取最后访问时间
+     * @return 最后访问时间戳
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * 刷新最后访问时间
+     */
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取已放入信箱的最后一封广播ID
+     * @return 广播水位，尚未从存储读取时返回-1
+     */
+    public long getBroadcastWatermark() {
+        return broadcastWatermark;
+    }
+
+    /**
+     * 设置已放入信箱的最后一封广播ID
+     * @param broadcastWatermark 广播水位
+     */
+    public void setBroadcastWatermark(long broadcastWatermark) {
+        this.broadcastWatermark = broadcastWatermark;
+    }
+
+    /**
+     * 标记信箱已被修改
+     * @return 修改后的版本号
+     */
+    public synchronized long markDirty() {
+        return ++version;
+    }
+
+    /**
+     * 记录单次修改已写入存储
+     * 只有在之前的修改都已写入时才推进已保存版本，写入失败的修改会保留脏标记
+     * @param writtenVersion 已写入的修改对应的版本号
+     */
+    public synchronized void commitWrite(long writtenVersion) {
+        commitWrite(writtenVersion - 1, writtenVersion);
+    }
+
+    /**
+     * 记录一批连续的修改已写入存储
+     * @param baseVersion 这批修改之前的版本号
+     * @param writtenVersion 这批修改中最后一次修改的版本号
+     */
+    public synchronized void commitWrite(long baseVersion, long writtenVersion) {
+        if (persistedVersion == baseVersion) {
+            persistedVersion = writtenVersion;
+        }
+    }
+
+    /**
+     * 记录一批连续的修改已写入存储，并把写入的变更同步到合并基准上
+     * 存储版本正好推进一次说明期间没有其他写入方，基准随之推进；
+     * 否则保留旧基准，下次整体保存时由版本冲突触发合并
+     * @param baseVersion 这批修改之前的版本号
+     * @param writtenVersion 这批修改中最后一次修改的版本号
+     * @param changes 写入存储的变更集
+     * @param newStoredVersion 写入后存储中的信箱版本
+     */
+    public synchronized void commitWrite(long baseVersion, long writtenVersion, MailboxChangeSet changes, long newStoredVersion) {
+        commitWrite(baseVersion, writtenVersion);
+        if (storedVersion >= 0 && newStoredVersion == storedVersion + 1) {
+            storedMails = Collections.unmodifiableList(MailboxMerge.apply(storedMails, changes));
+            storedVersion = newStoredVersion;
+        }
+    }
+
+    /**
+     * 记录整个信箱已在指定版本时保存
+     * @param savedVersion 保存时的版本号
+     */
+    public synchronized void markPersisted(long savedVersion) {
+        persistedVersion = Math.max(persistedVersion, savedVersion);
+    }
+
+    /**
+     * 获取当前版本号
+     * @return 版本号
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * 检查信箱是否有尚未保存的修改
+     * @return 是否为脏信箱
+     */
+    public synchronized boolean isDirty() {
+        return version != persistedVersion;
+    }
+
+    private void indexStack(MailItem mail, int position) {
+        if (openStacks != null) {
+            ItemStack stack = mail.getItem();
+            if (stack.getAmount() < stack.getMaxStackSize()) {
+                openStacks.put(new StackKey(stack), position);
+            }
+        }
+    }
+
+    /**
+     * 物品堆索引的键，按 ItemStack#isSimilar 判断相同 (忽略数量)
+     */
+    private static final class StackKey {
+        private final ItemStack item;
+        private final int hash;
+
+        private StackKey(ItemStack item) {
+            this.item = item;
+            this.hash = 31 * item.getType().hashCode() + (item.hasItemMeta() ? item.getItemMeta().hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StackKey && item.isSimilar(((StackKey) other).item);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,14 +1,26 @@
 package me.ninepin.mailBoxPlugin.utils;
 
+import org.bukkit.Material;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * 信箱系统工具类
  * 提供一些通用的工具方法
  */
 public class MailboxUtils {
 
+    // DateTimeFormatter 是线程安全的，可以在异步任务中共用
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
     /**
      * 检查背包是否有足够空间放置物品
      * @param inventory 背包
@@ -33,6 +45,65 @@ public class MailboxUtils {
         return false;
     }
 
+    /**
+     * 计算一批物品中哪些可以完整放入背包
+     * 只读取一次背包内容，在模拟的格子上依次放置物品：先合并到相同物品未满的堆叠，再占用空格子，
+     * 与 Inventory#addItem 的放置顺序一致。放不下的物品整件跳过，不影响后面的物品
+     * @param inventory 背包
+     * @param items 要放置的物品
+     * @return 可以放入的物品下标，按原顺序排列
+     */
+    public static List<Integer> planFit(Inventory inventory, List<ItemStack> items) {
+        ItemStack[] contents = inventory.getStorageContents();
+        ItemStack[] kinds = new ItemStack[contents.length];
+        int[] amounts = new int[contents.length];
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack stack = contents[slot];
+            if (stack != null && stack.getType() != Material.AIR) {
+                kinds[slot] = stack;
+                amounts[slot] = stack.getAmount();
+            }
+        }
+
+        List<Integer> fitting = new ArrayList<>();
+        int[] placed = new int[contents.length];
+        for (int i = 0; i < items.size(); i++) {
+            ItemStack item = items.get(i);
+            int maxStack = Math.min(item.getMaxStackSize(), inventory.getMaxStackSize());
+            int remaining = item.getAmount();
+            Arrays.fill(placed, 0);
+
+            // 先合并到未满的相同物品堆叠
+            for (int slot = 0; slot < contents.length && remaining > 0; slot++) {
+                if (kinds[slot] != null && amounts[slot] < maxStack && kinds[slot].isSimilar(item)) {
+                    placed[slot] = Math.min(remaining, maxStack - amounts[slot]);
+                    remaining -= placed[slot];
+                }
+            }
+            // 再占用空格子
+            for (int slot = 0; slot < contents.length && remaining > 0; slot++) {
+                if (kinds[slot] == null) {
+                    placed[slot] = Math.min(remaining, maxStack);
+                    remaining -= placed[slot];
+                }
+            }
+
+            if (remaining > 0) {
+                continue;
+            }
+            for (int slot = 0; slot < contents.length; slot++) {
+                if (placed[slot] > 0) {
+                    if (kinds[slot] == null) {
+                        kinds[slot] = item;
+                    }
+                    amounts[slot] += placed[slot];
+                }
+            }
+            fitting.add(i);
+        }
+        return fitting;
+    }
+
     /**
      * 获取物品的显示名称
      * @param item 物品
@@ -51,16 +122,28 @@ public class MailboxUtils {
      * @return 格式化后的时间字符串
      */
     public static String formatTimestamp(long timestamp) {
-        java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return sdf.format(new java.util.Date(timestamp));
+        return TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(timestamp));
     }
 
     /**
-     * 计算需要的GUI大小
-     * @param itemCount 物品数量
-     * @return GUI大小 (9的倍数，最大54)
+     * 将时长格式化为简短的文字，只保留最大的两个单位
+     * @param millis 时长 (毫秒)
+     * @return 格式化后的时长，例如 "2d 5h"
      */
-    public static int calculateGuiSize(int itemCount) {
-        return Math.min(54, ((itemCount / 9) + 1) * 9);
+    public static String formatDuration(long millis) {
+        long seconds = Math.max(0, millis / 1000);
+        long days = seconds / 86400;
+        long hours = seconds % 86400 / 3600;
+        long minutes = seconds % 3600 / 60;
+        if (days > 0) {
+            return hours > 0 ? days + "d " + hours + "h" : days + "d";
+        }
+        if (hours > 0) {
+            return minutes > 0 ? hours + "h " + minutes + "m" : hours + "h";
+        }
+        if (minutes > 0) {
+            return minutes + "m";
+        }
+        return seconds % 60 + "s";
     }
 }
\ No newline at end of file